@@ -18,6 +18,7 @@ import android.widget.Toast;
 import java.util.ArrayList;
 import java.util.List;
 
+import models.CardMetric;
 import models.TimeCard;
 import models.TimeInterval;
 
@@ -62,6 +63,7 @@ public class AddCardDialogFragment extends DialogFragment {
             String backCountStr = backCountView.getText().toString();
             String spinnerItem = cardTypeView.getSelectedItem().toString();
             TimeInterval interval = TimeInterval.valueOf(spinnerItem);
+            CardMetric metric = CardMetric.values()[cardMetricView.getSelectedItemPosition()];
 
             // If the number input was not a positive integer then notify
             // the user of the input error. The number may still cause an
@@ -73,7 +75,7 @@ public class AddCardDialogFragment extends DialogFragment {
                 try {
                     // Try to parse the input and get the data from this input.
                     int backCount = Integer.parseInt(backCountStr);
-                    TimeCard card = new TimeCard(interval, backCount, collapsed);
+                    TimeCard card = new TimeCard(metric, interval, backCount, collapsed);
 
                     // Add the card to the model, and notify the listener the
                     // card was added. THe card has not been queried yet.
@@ -100,6 +102,7 @@ public class AddCardDialogFragment extends DialogFragment {
 
     private EditText backCountView;
     private Spinner cardTypeView;
+    private Spinner cardMetricView;
 
     @Override
     public void onAttach(Activity activity) {
@@ -127,6 +130,12 @@ public class AddCardDialogFragment extends DialogFragment {
         adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
         cardTypeView.setAdapter(adapter);
 
+        cardMetricView = (Spinner) dialogView.findViewById(R.id.dialog_card_metric);
+        ArrayAdapter<String> metricAdapter = new ArrayAdapter<>(getActivity(),
+                android.R.layout.simple_list_item_1, getMetrics());
+        metricAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        cardMetricView.setAdapter(metricAdapter);
+
         return new AlertDialog.Builder(getActivity())
                 .setView(dialogView)
                 .setPositiveButton(R.string.add, onPositiveButton)
@@ -154,6 +163,21 @@ public class AddCardDialogFragment extends DialogFragment {
         return intervals;
     }
 
+    /**
+     * Get the labels of the CardMetrics, in the order of the CardMetric values, so the selected
+     * position is the ordinal of the metric.
+     *
+     * @return - A list of the labels of the CardMetrics.
+     */
+    private List<String> getMetrics() {
+        List<String> metrics = new ArrayList<>();
+
+        for(CardMetric metric : CardMetric.values())
+            metrics.add(metric.label);
+
+        return metrics;
+    }
+
     /**
      * Checks if the provided String is a positive number.
      *
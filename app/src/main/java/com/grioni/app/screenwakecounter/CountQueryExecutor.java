@@ -0,0 +1,196 @@
+package com.grioni.app.screenwakecounter;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author Matias Grioni
+ * @created 1/20/16
+ *
+ * Runs the queries of the ScreenCountDatabase on a background thread and gives their results back
+ * on the main thread, so that no query holds up a frame. It is only to be used from the main
+ * thread.
+ *
+ * Each query is given a key, such as the window it reads, and a query that is submitted while
+ * another with the same key is still running shares its result instead of running again. Each
+ * query is also submitted for an owner, such as a Fragment, and a newer query for the same owner
+ * replaces the older one, whose callback is then never called.
+ */
+public class CountQueryExecutor {
+    private static final String TAG = "CountQueryExecutor";
+
+    /**
+     * @author Matias Grioni
+     * @created 1/20/16
+     *
+     * Receives the result of a query on the main thread.
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    /**
+     * @author Matias Grioni
+     * @created 1/20/16
+     *
+     * A submitted query whose callback has not been called yet.
+     */
+    public static class Request {
+        private PendingQuery<?> query;
+        private Callback<?> callback;
+        private boolean cancelled;
+
+        private Request(PendingQuery<?> query, Callback<?> callback) {
+            this.query = query;
+            this.callback = callback;
+        }
+
+        /**
+         * Makes sure the callback of this request is not called. If no one else is waiting on the
+         * query it is cancelled too.
+         */
+        public void cancel() {
+            if(cancelled)
+                return;
+
+            cancelled = true;
+            query.cancel(this);
+        }
+    }
+
+    private Handler mainHandler = new Handler(Looper.getMainLooper());
+    private ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private Map<String, PendingQuery<?>> inFlight = new HashMap<>();
+    private Map<Object, Request> latest = new HashMap<>();
+
+    /**
+     * A query that is running or waiting to run, along with every request waiting on its result.
+     */
+    private class PendingQuery<T> implements Runnable {
+        private String key;
+        private Callable<T> query;
+        private List<Request> requests = new ArrayList<>();
+        private Future<?> future;
+
+        private PendingQuery(String key, Callable<T> query) {
+            this.key = key;
+            this.query = query;
+        }
+
+        @Override
+        public void run() {
+            try {
+                final T result = query.call();
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver(result);
+                    }
+                });
+            } catch(Exception ex) {
+                Log.e(TAG, "Query " + key + " failed", ex);
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        finish();
+                    }
+                });
+            }
+        }
+
+        /**
+         * Calls the callback of every request that is still waiting.
+         *
+         * @param result The result of the query.
+         */
+        @SuppressWarnings("unchecked")
+        private void deliver(T result) {
+            finish();
+
+            for(Request request : requests) {
+                if(!request.cancelled)
+                    ((Callback<T>) request.callback).onResult(result);
+            }
+        }
+
+        /**
+         * Removes this query and its requests from those in flight.
+         */
+        private void finish() {
+            if(inFlight.get(key) == this)
+                inFlight.remove(key);
+
+            latest.values().removeAll(requests);
+        }
+
+        /**
+         * Cancels the query once none of its requests are waiting on it anymore.
+         *
+         * @param request The request that was cancelled.
+         */
+        private void cancel(Request request) {
+            for(Request other : requests) {
+                if(!other.cancelled)
+                    return;
+            }
+
+            future.cancel(false);
+            if(inFlight.get(key) == this)
+                inFlight.remove(key);
+        }
+    }
+
+    /**
+     * Runs the query in the background unless one with the same key is already running, and calls
+     * the callback with its result on the main thread. The last request of the owner is cancelled.
+     *
+     * @param owner Who the query is for. Only the latest request of an owner is answered.
+     * @param key What the query reads. Queries with equal keys must give equal results.
+     * @param query The query to run.
+     * @param callback Receives the result of the query.
+     * @return The request, which can be cancelled.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Request submit(Object owner, String key, Callable<T> query, Callback<T> callback) {
+        Request superseded = latest.get(owner);
+        if(superseded != null)
+            superseded.cancel();
+
+        PendingQuery<T> pending = (PendingQuery<T>) inFlight.get(key);
+        if(pending == null) {
+            pending = new PendingQuery<>(key, query);
+            inFlight.put(key, pending);
+            pending.future = executor.submit(pending);
+        }
+
+        Request request = new Request(pending, callback);
+        pending.requests.add(request);
+        latest.put(owner, request);
+
+        return request;
+    }
+
+    /**
+     * Cancels the last request of the owner, such as when it goes away.
+     *
+     * @param owner The owner the requests were submitted for.
+     */
+    public void cancel(Object owner) {
+        Request request = latest.remove(owner);
+        if(request != null)
+            request.cancel();
+    }
+}
@@ -16,6 +16,8 @@ import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import java.util.concurrent.Callable;
+
 import models.TimeCard;
 import models.TimeCardCache;
 import models.TimeInterval;
@@ -54,6 +56,7 @@ public class GraphDetailFragment extends ActionModeFragment {
 
     private TimeCardsManager cardsManager;
     private ScreenCountDatabase countDatabase;
+    private CountQueryExecutor queryExecutor;
     private Exporter exporter;
 
     private OnCardDeletedListener cardDeletedListener;
@@ -63,7 +66,7 @@ public class GraphDetailFragment extends ActionModeFragment {
     private TextView stdev;
     private GraphView graph;
     private String axis;
-    private IndexedAdapter<Integer> graphDetailAdapter;
+    private IndexedAdapter graphDetailAdapter;
 
     private TimeCard card;
     private TimeCardCache cache;
@@ -110,7 +113,8 @@ public class GraphDetailFragment extends ActionModeFragment {
                 " extend AppCompatActivity");
         }
 
-        actionBar.setTitle(LabelUtils.last(card.interval, card.backCount) + cache.count);
+        actionBar.setTitle(LabelUtils.last(card.interval, card.backCount) + cache.count
+                + card.metric.unit);
     }
 
     @Override
@@ -119,6 +123,7 @@ public class GraphDetailFragment extends ActionModeFragment {
 
         cardsManager = TimeCardsManager.getInstance(getActivity());
         countDatabase = ((InstanceApplication) getActivity().getApplicationContext()).getCountDatabase();
+        queryExecutor = ((InstanceApplication) getActivity().getApplicationContext()).getQueryExecutor();
         exporter = new Exporter("screenwake/data");
 
         // Get the TimeCard given the position and the TimeCard should have
@@ -201,13 +206,19 @@ public class GraphDetailFragment extends ActionModeFragment {
             }
         });
 
-        graphDetailAdapter = new IndexedAdapter<>(getActivity(),
+        graphDetailAdapter = new IndexedAdapter(getActivity(),
                 R.layout.row_graph_detail, cache.data);
         pointsView.setAdapter(graphDetailAdapter);
 
         return detailView;
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        queryExecutor.cancel(this);
+    }
+
     @Override
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
         inflater.inflate(R.menu.graph_details, menu);
@@ -243,12 +254,47 @@ public class GraphDetailFragment extends ActionModeFragment {
 
     /**
      * Updates the data this {@code Fragment} displays from the {@code TimeCardManager} and
-     * {@code ScreenCountDatabase}.
+     * {@code ScreenCountDatabase}. The entries are queried in the background and shown once they
+     * are ready.
      */
     public void update() {
-        cache.data = countDatabase.getEntries(card.interval, card.backCount);
-        cache.count = DataUtils.sum(cache.data);
+        String key = "cache:" + card.metric + card.interval + card.backCount;
+        queryExecutor.submit(this, key, new Callable<TimeCardCache>() {
+            @Override
+            public TimeCardCache call() {
+                return countDatabase.getCache(card);
+            }
+        }, new CountQueryExecutor.Callback<TimeCardCache>() {
+            @Override
+            public void onResult(TimeCardCache result) {
+                // The result may be shared with another request for the same entries, so its
+                // entries are only copied once its current hour changes.
+                cache.set(result);
 
+                refresh();
+            }
+        });
+    }
+
+    /**
+     * Changes the current hour of the shown data in place from the live values of the sources of
+     * the card, without querying the database. A full update is still needed once the hour is
+     * written. A cache that came from the arguments is queried again instead, since it does not
+     * have the finished entries.
+     */
+    public void updateCurrentHour() {
+        if(!cache.setHourValues(ScreenCountDatabase.getHourValues(card.metric))) {
+            update();
+            return;
+        }
+
+        refresh();
+    }
+
+    /**
+     * Redraws the stats, points, graph and title from the cache.
+     */
+    private void refresh() {
         updateStats();
 
         // Redraw the graph after updating its data
@@ -256,7 +302,8 @@ public class GraphDetailFragment extends ActionModeFragment {
         graph.setData(cache.data);
         graph.postInvalidate();
 
-        actionBar.setTitle(LabelUtils.last(card.interval, card.backCount) + cache.count);
+        actionBar.setTitle(LabelUtils.last(card.interval, card.backCount) + cache.count
+                + card.metric.unit);
     }
 
     /**
@@ -4,29 +4,30 @@ import android.content.Context;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 import android.widget.TextView;
 
-import java.util.List;
+import models.IntSeries;
 
 /**
  * @author - Matias Grioni
  * @created - 12/25/14
  *
  * An adapter for a double columned ListView. The left column is the index of
- * the item in the provided list to adapt. The right column is the item. The
+ * the item in the provided series to adapt. The right column is the item. The
  * resourceId for the row view should have two TextViews with the index TextView
  * having id of row_data_index, and the other with id of row_data_count.
  *
  * Note that when the index is displayed in the appropriate TextView, it will
- * be the index+1 so that the first data point in the list has an index of 1.
+ * be the index+1 so that the first data point in the series has an index of 1.
  *
- * Second note, when the list item is shown in the appropriate TextView, the
- * toString method will be called on it.
+ * The series is read in place, so setting new data does not copy or box the
+ * entries.
  */
-public class IndexedAdapter<T> extends ArrayAdapter<T> {
+public class IndexedAdapter extends BaseAdapter {
     private LayoutInflater inflater;
     private int textViewResourceId;
+    private IntSeries values;
 
     /**
      * Create a new IndexedAdapter using the provided Context, resource id for
@@ -35,11 +36,25 @@ public class IndexedAdapter<T> extends ArrayAdapter<T> {
      * @param context - The Context object to use for this adapter.
      * @param values - The values to adapt.
      */
-    public IndexedAdapter(Context context, int textViewResourceId, List<T> values) {
-        super(context, textViewResourceId, values);
-
+    public IndexedAdapter(Context context, int textViewResourceId, IntSeries values) {
         inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
         this.textViewResourceId = textViewResourceId;
+        this.values = values;
+    }
+
+    @Override
+    public int getCount() {
+        return values.size();
+    }
+
+    @Override
+    public Object getItem(int position) {
+        return values.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
     }
 
     @Override
@@ -53,23 +68,18 @@ public class IndexedAdapter<T> extends ArrayAdapter<T> {
         TextView count = (TextView) rowView.findViewById(R.id.row_data_count);
 
         index.setText(Integer.toString(position + 1));
-
-        T item = getItem(position);
-        count.setText(item.toString());
+        count.setText(Integer.toString(values.get(position)));
 
         return rowView;
     }
 
     /**
-     * Clears the prior data and sets it to the provided list.
+     * Replaces the prior data with the provided series.
      *
      * @param values - The new values for the Adapter to show.
      */
-    public void setData(List<T> values) {
-        clear();
-        addAll(values);
+    public void setData(IntSeries values) {
+        this.values = values;
         notifyDataSetChanged();
     }
-
-
 }
@@ -2,6 +2,9 @@ package com.grioni.app.screenwakecounter;
 
 import android.app.Application;
 
+import services.CountEventBus;
+import services.CountWriter;
+
 /**
  * @author - Matias Grioni
  * @created - 8/22/15
@@ -12,6 +15,9 @@ import android.app.Application;
 public class InstanceApplication extends Application {
     protected ScreenCountDatabase countDatabase;
     protected TimeCardsManager cardsManager;
+    protected CountQueryExecutor queryExecutor;
+    protected CountEventBus eventBus;
+    protected CountWriter countWriter;
 
     @Override
     public void onCreate() {
@@ -21,6 +27,9 @@ public class InstanceApplication extends Application {
         // application life.
         countDatabase = ScreenCountDatabase.getInstance(getApplicationContext());
         countDatabase.open();
+        queryExecutor = new CountQueryExecutor();
+        eventBus = new CountEventBus();
+        countWriter = CountWriter.getInstance(getApplicationContext());
 
         // Same as above. Android kernel will handle the closing at the end of the application life.
         // Doesn't really matter if it's open, because there is only one instance per application.
@@ -38,6 +47,33 @@ public class InstanceApplication extends Application {
         return this.countDatabase;
     }
 
+    /**
+     * Provides the executor that runs the queries of the ScreenCountDatabase off of the main thread.
+     *
+     * @return - The CountQueryExecutor instance for the application.
+     */
+    public CountQueryExecutor getQueryExecutor() {
+        return this.queryExecutor;
+    }
+
+    /**
+     * Provides the bus that every change to the counts is published on.
+     *
+     * @return - The CountEventBus instance for the application.
+     */
+    public CountEventBus getEventBus() {
+        return this.eventBus;
+    }
+
+    /**
+     * Provides the CountWriter that makes every change to the counts.
+     *
+     * @return - The CountWriter instance for the application.
+     */
+    public CountWriter getCountWriter() {
+        return this.countWriter;
+    }
+
     /**
      * Provides the TimeCardsManager instance for this application.
      *
@@ -1,17 +1,18 @@
 package com.grioni.app.screenwakecounter;
 
+import android.app.AlertDialog;
 import android.app.Fragment;
 import android.app.FragmentManager;
 import android.app.FragmentTransaction;
 import android.content.ComponentName;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.os.CountDownTimer;
 import android.os.IBinder;
-import android.os.SystemClock;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.view.Menu;
@@ -22,12 +23,16 @@ import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
 import android.widget.TextView;
 
+import java.util.TimeZone;
+
 import models.TimeCard;
 import models.TimeCardCache;
 import models.TimeInterval;
+import services.CountEvent;
+import services.CountEventBus;
+import services.CountWriter;
 import services.ScreenCountService;
-import services.ScreenCountWriteService;
-import services.ServiceUpdateListener;
+import utils.WorkloadGenerator;
 import views.FloatingActionButton;
 
 /**
@@ -43,9 +48,14 @@ public class MainActivity extends AppCompatActivity implements
         TimeCardsFragment.OnCardClickedListener {
 
     private static final String TIME_CARDS_FRAGMENT_TAG = "timeCards";
+
     private static final String GRAPH_DETAILS_FRAGMENT_TAG = "graphDetails";
     private static final String SETTINGS_FRAGMENT_TAG = "settings";
 
+    // The sample history loaded from the debug menu.
+    private static final int SAMPLE_HISTORY_HOURS = 365 * 24;
+    private static final long SAMPLE_HISTORY_SEED = 42;
+
     /**
      * @author Matias Grioni
      * @created 1/1/16
@@ -57,18 +67,30 @@ public class MainActivity extends AppCompatActivity implements
         TIME_CARDS, GRAPH_DETAILS, SETTINGS, UNDEFINED
     }
 
-    private ServiceUpdateListener onScreenWakeCountChange = new ServiceUpdateListener() {
+    // Changes within the current hour only change the last entry of every card, so the cards are
+    // updated in place from the live values of the current hour. Once hours are written the
+    // entries of the cards shift, so they are queried again.
+    private CountEventBus.Listener onCountChange = new CountEventBus.Listener() {
         @Override
-        public void onUpdate() {
-            updateInfo(ScreenCountService.getHourCount());
-
-            if (fragmentState == FragmentState.TIME_CARDS)
-                timeCards.update();
-            else if (fragmentState == FragmentState.GRAPH_DETAILS)
-                graphDetails.update();
+        public void onCountEvent(CountEvent event) {
+            updateInfo(event.hourCount);
+
+            if (!event.writesHours()) {
+                if (fragmentState == FragmentState.TIME_CARDS)
+                    timeCards.updateCurrentHour();
+                else if (fragmentState == FragmentState.GRAPH_DETAILS)
+                    graphDetails.updateCurrentHour();
+            } else {
+                if (fragmentState == FragmentState.TIME_CARDS)
+                    timeCards.update();
+                else if (fragmentState == FragmentState.GRAPH_DETAILS)
+                    graphDetails.update();
+            }
         }
     };
 
+    private CountEventBus eventBus;
+
     private boolean countBound;
     private ScreenCountService countService;
     private ServiceConnection countConnection = new ServiceConnection() {
@@ -76,8 +98,6 @@ public class MainActivity extends AppCompatActivity implements
         public void onServiceConnected(ComponentName className, IBinder service) {
             ScreenCountService.ScreenCountBinder binder = (ScreenCountService.ScreenCountBinder) service;
             countService = binder.getService();
-
-            countService.setUpdateListener(onScreenWakeCountChange);
             countBound = true;
 
             updateInfo(ScreenCountService.getHourCount());
@@ -90,26 +110,6 @@ public class MainActivity extends AppCompatActivity implements
         }
     };
 
-    private boolean writeBound;
-    private ScreenCountWriteService writeService;
-    private ServiceConnection writeConnection = new ServiceConnection() {
-        @Override
-        public void onServiceConnected(ComponentName componentName, IBinder service) {
-            ScreenCountWriteService.ScreenCountWriteBinder binder =
-                    (ScreenCountWriteService.ScreenCountWriteBinder) service;
-            writeService = binder.getService();
-
-            writeService.setUpdateListener(onScreenWakeCountChange);
-            writeBound = true;
-        }
-
-        @Override
-        public void onServiceDisconnected(ComponentName componentName) {
-            writeService = null;
-            writeBound = false;
-        }
-    };
-
     private View.OnClickListener onAddCard = new View.OnClickListener() {
         @Override
         public void onClick(View view) {
@@ -141,8 +141,8 @@ public class MainActivity extends AppCompatActivity implements
         Intent wakeIntent = new Intent(MainActivity.this, ScreenCountService.class);
         bindService(wakeIntent, countConnection, Context.BIND_AUTO_CREATE);
 
-        Intent writeIntent = new Intent(MainActivity.this, ScreenCountWriteService.class);
-        bindService(writeIntent, writeConnection, Context.BIND_AUTO_CREATE);
+        eventBus = ((InstanceApplication) getApplication()).getEventBus();
+        eventBus.subscribe(onCountChange);
 
         Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
@@ -173,6 +173,11 @@ public class MainActivity extends AppCompatActivity implements
                 settings = new SettingsFragment();
                 addToBackStack(settings, SETTINGS_FRAGMENT_TAG, FragmentState.SETTINGS);
 
+                break;
+
+            case R.id.debug_load_history:
+                loadSampleHistory();
+
                 break;
         }
 
@@ -191,25 +196,48 @@ public class MainActivity extends AppCompatActivity implements
     @Override
     public void onDestroy() {
         super.onDestroy();
+        eventBus.unsubscribe(onCountChange);
 
         if(countBound) {
             unbindService(countConnection);
             countBound = false;
         }
-
-        if(writeBound) {
-            unbindService(writeConnection);
-            writeBound = false;
-        }
     }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         MenuInflater inflater = getMenuInflater();
         inflater.inflate(R.menu.main, menu);
+        if(BuildConfig.DEBUG)
+            inflater.inflate(R.menu.debug, menu);
+
         return true;
     }
 
+    /**
+     * Asks whether to replace the count history with a year of generated hours that ends at the
+     * current hour, for trying out the app with a long history. The history is made up and loaded
+     * by the CountWriter off of the main thread and the cards are updated once it publishes the
+     * backfill.
+     */
+    private void loadSampleHistory() {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.debug_load_history)
+                .setMessage(R.string.debug_load_history_message)
+                .setPositiveButton(R.string.debug_load_history_confirm,
+                        new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        CountWriter countWriter =
+                                ((InstanceApplication) getApplication()).getCountWriter();
+                        countWriter.load(new WorkloadGenerator(SAMPLE_HISTORY_SEED,
+                                TimeZone.getDefault()), SAMPLE_HISTORY_HOURS);
+                    }
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
     @Override
     public void onCardClicked(TimeCard card, TimeCardCache cache) {
         graphDetails = GraphDetailFragment.newInstance(card, cache);
@@ -234,8 +262,8 @@ public class MainActivity extends AppCompatActivity implements
     private void updateInfo(int count) {
         hourCount.setText(Integer.toString(count));
 
-        long timeLeft = 60 * 60 * 1000 -
-                (SystemClock.elapsedRealtime() - ScreenCountService.getLastAlarmTime());
+        long timeLeft = ScreenCountService.getHourStart() + ScreenCountDatabase.HOUR_MILLIS
+                - System.currentTimeMillis();
         CountDownTimer timer = new CountDownTimer(timeLeft, 1000) {
             @Override
             public void onTick(long millisUntilFinished) {
@@ -1,16 +1,31 @@
 package com.grioni.app.screenwakecounter;
 
-import android.content.ContentValues;
 import android.content.Context;
-import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-
+import java.util.Map;
+
+import models.CardMetric;
+import models.CountMetric;
+import models.IntSeries;
+import models.IntervalAggregate;
+import models.TimeCard;
+import models.TimeCardCache;
 import models.TimeInterval;
 import services.ScreenCountService;
+import stores.CountEngine;
+import stores.CountStore;
+import stores.MappedCountStore;
+import stores.MemoryCountStore;
+import stores.SQLiteCountStore;
+import stores.WriteGroup;
+import utils.DataUtils;
 
 /**
  * @author Matias Grioni
@@ -19,26 +34,128 @@ import services.ScreenCountService;
  * Access to the database that keeps track of the screen wakes per hour, day, week, and month. Given
  * a TimeInterval and how far back to go, the ScreenCountDatabase instance can return the list of
  * points for that time period. This class uses a singleton instance.
+ *
+ * The buckets of each TimeInterval are kept in a CountStore, and which kind of store is used is
+ * chosen when the database is opened. The counting and rollups themselves are done by a CountEngine
+ * from the core module, and this class opens its stores, groups its writes into transactions, and
+ * gives it the count of the current hour.
+ *
+ * The windows that were queried are cached until the next hour is written, since the notification,
+ * the cards and the graph details tend to ask for the same ones. The current hour is left out of
+ * the cached entries and added back from the live hour count on every read. The cached entries are
+ * never changed, so the cards are made from views of them and each card only allocates the array
+ * of its own entries.
+ *
+ * Besides the screen wakes, the screen on time, sessions and unlocks of every hour are kept, each
+ * CountMetric in its own stores and CountEngine. The hours of every metric are written together, so
+ * their buckets always line up and cards can be made from more than one of them.
+ *
+ * With the SQLite stores the queries have engines of their own, which only read, so a query never
+ * waits on an hour being written.
  */
 public class ScreenCountDatabase {
-    public static final int DAY_TO_HOUR = 4;
-    public static final int WEEK_TO_DAY = 3;
-    public static final int MONTH_TO_DAY = 4;
+    public static final int DAY_TO_HOUR = CountEngine.DAY_TO_HOUR;
+    public static final int WEEK_TO_DAY = CountEngine.WEEK_TO_DAY;
+    public static final int MONTH_TO_DAY = CountEngine.MONTH_TO_DAY;
+    public static final long HOUR_MILLIS = CountEngine.HOUR_MILLIS;
+
+    /**
+     * Where the buckets are kept. SQLITE is the database made by TimeCounterHelper, MEMORY is only
+     * kept while the process lives, and MAPPED is a memory mapped file per TimeInterval in the app's
+     * files directory.
+     */
+    public enum StoreBackend {
+        SQLITE, MEMORY, MAPPED
+    }
+
+    // The most windows kept in the result cache.
+    private static final int MAX_CACHED_WINDOWS = 32;
+
+    // How many times a query is run before its result is given back even though a write happened
+    // while it ran.
+    private static final int MAX_QUERY_ATTEMPTS = 3;
+
+    /**
+     * The finished part of a window as of a generation of the database. The last entry and the
+     * count leave out the current hour. The entries are null if only the count was queried, and
+     * are never changed once the window is made.
+     */
+    private static class CachedWindow {
+        long generation;
+        int count;
+        IntSeries entries;
+    }
+
+    /**
+     * A query of the engine of one CountMetric.
+     */
+    private static abstract class EngineQuery<T> {
+        // The generation the result is from.
+        long generation;
+
+        abstract T run(CountEngine engine);
+    }
 
     private static ScreenCountDatabase instance;
 
+    private Context context;
     private SQLiteDatabase database;
     private TimeCounterHelper tcHelper;
-    private String[] columns = { TimeCounterHelper.COLUMN_ID, TimeCounterHelper.COLUMN_COUNT };
+    private StoreBackend backend;
+
+    // The engines that write. They are not thread safe, so every use of them holds this lock.
+    // There is an engine for each CountMetric, indexed by the CountMetric ordinal.
+    private final Object engineLock = new Object();
+    private CountEngine[] engines = new CountEngine[CountMetric.values().length];
+    private long archiveAge = CountEngine.DEFAULT_ARCHIVE_AGE;
+
+    // The engines of the queries over the SQLite stores, which only read and have their own lock.
+    // With WAL their reads run on connections of their own while an hour is written. Their stores
+    // only know the sizes from when they were opened, so they are opened again, one CountMetric
+    // at a time, after every write. The memory and mapped stores are only kept by the engines that
+    // write, so their queries share those engines and their lock.
+    private final Object readLock = new Object();
+    private CountEngine[] readers = new CountEngine[CountMetric.values().length];
+    private long readersGeneration = -1;
+
+    // Bumped by every write, so that cached windows and queries that were running during a write
+    // are never served afterwards.
+    private long generation;
+    private Map<Long, CachedWindow> windows =
+            new LinkedHashMap<Long, CachedWindow>(MAX_CACHED_WINDOWS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, CachedWindow> eldest) {
+            return size() > MAX_CACHED_WINDOWS;
+        }
+    };
+
+    // Groups the writes of the engines into a transaction for the SQLite stores. It does not lock
+    // out readers since the database uses WAL. If the changes did not all go through, the
+    // transaction is rolled back and the stores are reopened so their sizes agree with what was
+    // committed.
+    private WriteGroup transactions = new WriteGroup() {
+        @Override
+        public void begin() {
+            if(database != null)
+                database.beginTransactionNonExclusive();
+        }
+
+        @Override
+        public void end(boolean committed) {
+            if(database == null)
+                return;
+
+            if(committed)
+                database.setTransactionSuccessful();
+            database.endTransaction();
 
-    // The row size / length of the respective tables. The hour table is an
-    // irregularity because once the first day passes the hour rows are reused
-    // so the size is usually 24. So hourSize is really the current hour of the
-    // day we are currently on.
-    private static int hourSize = 0;
-    private static int daySize = 0;
-    private static int weekSize = 0;
-    private static int monthSize = 0;
+            if(!committed) {
+                closeEngines();
+                openEngines();
+                invalidate();
+            }
+        }
+    };
 
     /**
      * Create a new instance or get the already created instance for ScreenCountDatabase.
@@ -60,24 +177,37 @@ public class ScreenCountDatabase {
      * @param context The Context to create the database object with.
      */
     private ScreenCountDatabase(Context context) {
+        this.context = context;
         tcHelper = new TimeCounterHelper(context);
     }
 
     /**
      * Should be called before any data retrieval or modifications to the database. Opens the
-     * database.
+     * database with the SQLite stores.
      *
      * @throws SQLException If the database can not be opened for writing.
      */
     public void open() throws SQLException {
-        database = tcHelper.getWritableDatabase();
+        open(StoreBackend.SQLITE);
+    }
 
-        // Get the current table size. Important if the app crashed or was closed and it needs to be
-        // restarted from where it was left off.
-        hourSize = queryTableSize(TimeCounterHelper.TABLE_HOUR_NAME);
-        daySize = queryTableSize(TimeCounterHelper.TABLE_DAY_NAME);
-        weekSize = queryTableSize(TimeCounterHelper.TABLE_WEEK_NAME);
-        monthSize = queryTableSize(TimeCounterHelper.TABLE_MONTH_NAME);
+    /**
+     * Opens the stores of the given kind for every TimeInterval and CountMetric. Should be called
+     * before any data retrieval or modifications. Nothing is written, so the metrics that are not
+     * lined up with the screen wakes yet stay that way until alignMetrics is called.
+     *
+     * @param backend The kind of store to keep the buckets in.
+     * @throws SQLException If the stores can not be opened for writing.
+     */
+    public void open(StoreBackend backend) throws SQLException {
+        this.backend = backend;
+        if(backend == StoreBackend.SQLITE)
+            database = tcHelper.getWritableDatabase();
+
+        synchronized(engineLock) {
+            openEngines();
+        }
+        invalidate();
     }
 
     /**
@@ -85,60 +215,178 @@ public class ScreenCountDatabase {
      * to open must follow.
      */
     public void close() {
-        database.close();
+        synchronized(readLock) {
+            closeReaders();
+        }
+
+        synchronized(engineLock) {
+            closeEngines();
+
+            if(database != null) {
+                database.close();
+                database = null;
+            }
+        }
     }
 
     /**
-     * Puts the number in the correct location in the hour table. If it is currently the 7th hour
-     * then adding an hour will put the number in the 7th position of the hour table. If the hour is
-     * the 24th hour then the day counter will be incremented. If the day counter is on the 7th day
-     * then the week counter will be incremented and so on.
-     *
-     * Handles all the logic behind moving up in the table based on one more hour being added.
+     * Adds the last hour. Only the hour is written, since the days, weeks, and months are rolled up
+     * from the hours when they are read. The other metrics of the hour are 0.
      *
+     * @param hourStart The wall clock time in milliseconds at which the last hour started.
      * @param hourCount The number of screen wakes in the last hour to put in the table.
      */
-    public void addHour(int hourCount) {
-        ContentValues values = new ContentValues();
+    public void addHour(long hourStart, int hourCount) {
+        int[][] metricCounts = new int[CountMetric.values().length][1];
+        metricCounts[CountMetric.Wakes.ordinal()][0] = hourCount;
 
-        values.put("count", hourCount);
-        values.put("_id", hourSize + 1);
-        updateTable(TimeInterval.Hour, values);
-        hourSize++;
+        addHours(hourStart, metricCounts);
+    }
 
-        // Once we reach the DAY_TO_HOUR number or more sum the last hours starting from now and
-        // this sum of all the hours in the last day is put into the day table.
-        if(hourSize > DAY_TO_HOUR - 1) {
-            values.put("count", sumIntervalEntries(TimeInterval.Hour));
-            values.put("_id", daySize + 1);
-            updateTable(TimeInterval.Day, values);
+    /**
+     * Adds consecutive finished hours of every CountMetric in a single transaction, such as the
+     * hours that were missed while the device was asleep or turned off.
+     *
+     * @param firstStart The wall clock time in milliseconds at which the first hour started.
+     * @param metricCounts The count of each hour, one after the other, for each CountMetric indexed
+     *                     by the CountMetric ordinal.
+     */
+    public void addHours(long firstStart, int[][] metricCounts) {
+        synchronized(engineLock) {
+            boolean committed = false;
+            transactions.begin();
+            try {
+                for(CountMetric metric : CountMetric.values()) {
+                    CountEngine engine = engines[metric.ordinal()];
+                    engine.addHours(firstStart, metricCounts[metric.ordinal()]);
+                    engine.memoizeFinished();
+                }
+                committed = true;
+            } finally {
+                transactions.end(committed);
+            }
+        }
+        invalidate();
+    }
 
-            database.delete(TimeCounterHelper.TABLE_HOUR_NAME, null, null);
-            hourSize = 0;
-            daySize++;
+    /**
+     * Replaces the whole history with the given hours in a single transaction, such as one made by
+     * a WorkloadGenerator. The other metrics are replaced with as many hours of 0.
+     *
+     * @param firstStart The wall clock time in milliseconds at which the first hour started.
+     * @param hourCounts The count of each hour, one after the other.
+     */
+    public void load(long firstStart, int[] hourCounts) {
+        synchronized(engineLock) {
+            boolean committed = false;
+            transactions.begin();
+            try {
+                for(CountMetric metric : CountMetric.values()) {
+                    int[] counts = metric == CountMetric.Wakes ? hourCounts
+                            : new int[hourCounts.length];
+                    engines[metric.ordinal()].load(firstStart, counts);
+                    engines[metric.ordinal()].memoizeFinished();
+                }
+                committed = true;
+            } finally {
+                transactions.end(committed);
+            }
         }
+        invalidate();
+    }
 
-        // If this is the first day then day % WEEK_TO_DAY will return 0 so check against that.
-        // Second we have to make sure this is the start of the day with hourSize == 0. If
-        // day % WEEK_TO_DAY == 0, it will for all hours of that day, so we have to make sure we
-        // only add it to the week table once. The same goes for the month check.
-        if (daySize != 0 && hourSize == 0) {
-            if(daySize % WEEK_TO_DAY == 0) {
-                values.put("count", sumIntervalEntries(TimeInterval.Day, WEEK_TO_DAY));
-                values.put("_id", weekSize + 1);
-                updateTable(TimeInterval.Week, values);
-
-                weekSize++;
+    /**
+     * Moves the rows of the tables from before version 3 into the current tables a batch at a time,
+     * if there are any left. Every batch is committed whole, so the queries meanwhile see the
+     * oldest part of the history that was moved so far. The engines that write are opened again
+     * once it is done. This can take a while for a long history, so it must not be called on the
+     * main thread.
+     *
+     * @return True if anything was migrated.
+     */
+    public boolean migrateLegacyTables() {
+        if(database == null)
+            return false;
+
+        boolean migrated = false;
+        synchronized(engineLock) {
+            while(tcHelper.migrateLegacyBatch(database)) {
+                migrated = true;
+                invalidate();
             }
 
-            if(daySize % MONTH_TO_DAY == 0) {
-                values.put("count", sumIntervalEntries(TimeInterval.Day, MONTH_TO_DAY));
-                values.put("_id", monthSize + 1);
-                updateTable(TimeInterval.Month, values);
+            if(migrated) {
+                closeEngines();
+                openEngines();
+            }
+        }
 
-                monthSize++;
+        if(migrated)
+            invalidate();
+
+        return migrated;
+    }
+
+    /**
+     * Fills the metrics that have no buckets yet, such as right after the upgrade that added them,
+     * with buckets of 0 at the times of the screen wakes, in a single transaction. This includes the
+     * days, weeks, and months the screen wakes have from before their hours were kept, so every
+     * TimeInterval of the metrics keeps lining up with the screen wakes. The first time this can
+     * write the whole history several times over, so it must not be called on the main thread.
+     *
+     * @return True if any metric was filled.
+     */
+    public boolean alignMetrics() {
+        boolean aligned = false;
+        synchronized(engineLock) {
+            CountEngine wakes = engines[CountMetric.Wakes.ordinal()];
+            if(wakes.isEmpty())
+                return false;
+
+            boolean committed = false;
+            transactions.begin();
+            try {
+                for(CountEngine engine : engines) {
+                    if(engine.isEmpty()) {
+                        engine.loadEmpty(wakes);
+                        engine.memoizeFinished();
+                        aligned = true;
+                    }
+                }
+                committed = true;
+            } finally {
+                transactions.end(committed);
             }
         }
+
+        if(aligned)
+            invalidate();
+
+        return aligned;
+    }
+
+    /**
+     * Sets how old buckets have to be before they are compacted into the archive. Takes effect the
+     * next time a day is finished.
+     *
+     * @param archiveAge The age in milliseconds after which buckets are compacted.
+     */
+    public void setArchiveAge(long archiveAge) {
+        synchronized(engineLock) {
+            this.archiveAge = archiveAge;
+            for(CountEngine engine : engines)
+                engine.setArchiveAge(archiveAge);
+        }
+    }
+
+    /**
+     * @return The wall clock time in milliseconds at which the last written hour started, or 0 if no
+     *         hour was ever written.
+     */
+    public long getLastHourStart() {
+        synchronized(engineLock) {
+            return engines[CountMetric.Wakes.ordinal()].getLastHourStart();
+        }
     }
 
     /**
@@ -150,241 +398,505 @@ public class ScreenCountDatabase {
      * @return The sum of all the selected entries in the table for the TimeInterval.
      */
     public int getCount(TimeInterval interval, int backCount) {
-        if(backCount == 1) {
-            backCount = convertSingleton(interval);
+        return getCount(CountMetric.Wakes, interval, backCount);
+    }
 
-            if(interval == TimeInterval.Day)
-                interval = TimeInterval.Hour;
-            else if(interval != TimeInterval.Hour)
-                interval = TimeInterval.Day;
-        }
+    /**
+     * Sums the last {@code backCount} entries of a CountMetric, the same way as getCount does for
+     * the screen wakes.
+     *
+     * @param metric The CountMetric to sum.
+     * @param interval The TimeInterval whose corresponding table to query for the entries.
+     * @param backCount How far back to go in the table including the current entry.
+     * @return The sum of all the selected entries of the metric.
+     */
+    public int getCount(CountMetric metric, TimeInterval interval, int backCount) {
+        return getFinishedCount(metric, interval, backCount) + getHourValue(metric);
+    }
 
-        // Add together the TimeInterval entries that have already occurred and are written to the
-        // database. Would not include current TimeInterval.
-        int entryCount = getEntryCount(interval);
-        int start = (entryCount - (backCount - 1)) < 0 ? 1 : entryCount - (backCount - 1) + 1;
-        Cursor cursor = getEntriesCursor(interval, start);
-        cursor.moveToFirst();
-
-        int sum = 0;
-        while(!cursor.isAfterLast()) {
-            sum += cursor.getInt(0);
-            cursor.moveToNext();
-        }
-        cursor.close();
+    /**
+     * Sums the same entries as getCount but leaves out the current hour. This only changes when an
+     * hour is written, so the current count can be kept as this plus the live hour count.
+     *
+     * @param interval The TimeInterval whose corresponding table to query for the entries.
+     * @param backCount How far back to go in the table including the current entry.
+     * @return The sum of the selected entries without the current hour.
+     */
+    public int getFinishedCount(TimeInterval interval, int backCount) {
+        return getFinishedCount(CountMetric.Wakes, interval, backCount);
+    }
+
+    /**
+     * Sums the same entries as getCount for the CountMetric but leaves out the current hour.
+     *
+     * @param metric The CountMetric to sum.
+     * @param interval The TimeInterval whose corresponding table to query for the entries.
+     * @param backCount How far back to go in the table including the current entry.
+     * @return The sum of the selected entries of the metric without the current hour.
+     */
+    public int getFinishedCount(CountMetric metric, final TimeInterval interval,
+                                final int backCount) {
+        CachedWindow window = getCached(metric, interval, backCount);
+        if(window != null)
+            return window.count;
+
+        EngineQuery<Integer> query = new EngineQuery<Integer>() {
+            @Override
+            Integer run(CountEngine engine) {
+                return engine.getCount(interval, backCount, 0);
+            }
+        };
 
-        sum += currentIntervalCount(interval);
+        window = new CachedWindow();
+        window.count = query(metric, query);
+        putCached(metric, interval, backCount, window, query.generation);
 
-        return sum;
+        return window.count;
     }
 
     /**
      * Queries the tables for the last desired entries, including the current entry, for the
-     * TimeInterval. Returns a list of all the entries for that TimeInterval, with the item order
+     * TimeInterval. Returns a series of all the entries for that TimeInterval, with the item order
      * being chronological. The last point is the current entry.
      *
      * @param interval The TimeInterval whose corresponding table to query.
      * @param backCount How far back to go in the table including the current entry.
-     * @return A list of the entries with a length of backCount corresponding to the table for
+     * @return A series of the entries with a length of backCount corresponding to the table for
      *         TimeInterval.
      */
-    public List<Integer> getEntries(TimeInterval interval, int backCount) {
-        if(backCount == 1) {
-            backCount = convertSingleton(interval);
+    public IntSeries getEntries(TimeInterval interval, int backCount) {
+        return getEntries(CountMetric.Wakes, interval, backCount);
+    }
 
-            if(interval == TimeInterval.Day)
-                interval = TimeInterval.Hour;
-            else if(interval != TimeInterval.Hour)
-                interval = TimeInterval.Day;
+    /**
+     * Queries the last entries of a CountMetric, the same way as getEntries does for the screen
+     * wakes. The entries are a copy the caller can change.
+     *
+     * @param metric The CountMetric to get the entries of.
+     * @param interval The TimeInterval whose corresponding table to query.
+     * @param backCount How far back to go in the table including the current entry.
+     * @return A series of the entries of the metric with a length of backCount.
+     */
+    public IntSeries getEntries(CountMetric metric, final TimeInterval interval,
+                                final int backCount) {
+        int hourValue = getHourValue(metric);
+
+        CachedWindow window = getCached(metric, interval, backCount);
+        if(window == null || window.entries == null) {
+            EngineQuery<IntSeries> query = new EngineQuery<IntSeries>() {
+                @Override
+                IntSeries run(CountEngine engine) {
+                    return engine.getEntries(interval, backCount, 0);
+                }
+            };
+
+            window = toWindow(query(metric, query));
+            putCached(metric, interval, backCount, window, query.generation);
         }
 
-        // Add together the TimeInterval entries that have already occurred and are written to the
-        // database. Would not include current TimeInterval.
-        int entryCount = getEntryCount(interval);
-        int start = (entryCount - (backCount - 1)) < 0 ? 1 : entryCount - (backCount - 1) + 1;
-        Cursor cursor = getEntriesCursor(interval, start);
-        cursor.moveToFirst();
-
-        List<Integer> data = new ArrayList<>();
-        while(!cursor.isAfterLast()) {
-            data.add(cursor.getInt(0));
-            cursor.moveToNext();
+        return withCurrentHour(window.entries, hourValue);
+    }
+
+    /**
+     * Queries what the card shows, made from the entries of the CountMetrics of its CardMetric.
+     *
+     * @param card The card to query.
+     * @return The entries and total of the card.
+     */
+    public TimeCardCache getCache(TimeCard card) {
+        List<TimeCard> cards = new ArrayList<>();
+        cards.add(card);
+
+        return getCaches(cards).get(0);
+    }
+
+    /**
+     * Queries what every card shows at once. The entries of each CountMetric are queried in one
+     * batch for all the cards made from it, as getEntries does for the screen wakes. The cached
+     * entries are only read, so the entries of each card are the one array allocated for it.
+     *
+     * @param cards The cards to query.
+     * @return The entries and total of each card in the same order as the cards.
+     */
+    public List<TimeCardCache> getCaches(List<TimeCard> cards) {
+        IntSeries[][] values = new IntSeries[cards.size()][];
+        int[][] hourValues = new int[cards.size()][];
+        for(int i = 0; i < cards.size(); i++) {
+            int sources = cards.get(i).metric.getSources().length;
+            values[i] = new IntSeries[sources];
+            hourValues[i] = new int[sources];
+        }
+
+        for(CountMetric metric : CountMetric.values()) {
+            List<TimeCard> using = new ArrayList<>();
+            for(TimeCard card : cards) {
+                if(card.metric.getSourceIndex(metric) >= 0)
+                    using.add(card);
+            }
+
+            if(using.isEmpty())
+                continue;
+
+            int hourValue = getHourValue(metric);
+            List<IntSeries> entries = getFinishedEntries(metric, using);
+            for(int i = 0, u = 0; i < cards.size(); i++) {
+                int source = cards.get(i).metric.getSourceIndex(metric);
+                if(source >= 0) {
+                    values[i][source] = entries.get(u++);
+                    hourValues[i][source] = hourValue;
+                }
+            }
         }
-        cursor.close();
 
-        data.add(currentIntervalCount(interval));
+        List<TimeCardCache> caches = new ArrayList<>(cards.size());
+        for(int i = 0; i < cards.size(); i++)
+            caches.add(new TimeCardCache(cards.get(i).metric, values[i], hourValues[i]));
 
-        return data;
+        return caches;
     }
 
     /**
-     * Gets the current screen wake count for the desired interval.
+     * Queries the entries of a CountMetric for every card at once. The cards on the same
+     * TimeInterval share one read of its table, so refreshing the cards costs about the same no
+     * matter how many there are. Only the cards whose windows are not cached are queried.
      *
-     * @param interval The TimeInterval to find the current screen wake count for.
-     * @return The current screen wake count for a given TimeInterval.
-     */
-    private int currentIntervalCount(TimeInterval interval) {
-        // Sum up the current TimeInterval. If we want the hour points, then the last hour is only
-        // the ScreenCountService count. If the interval is a day then we have to include all the
-        // current hours of this day in the count. If it's a week or month, we have to include the
-        // the days leading up to the current day.
-        int current = ScreenCountService.getHourCount();
-        if(interval != TimeInterval.Hour) {
-            if(interval != TimeInterval.Day) {
-                int intervalCount = daySize / convertSingleton(interval);
-                current += sumIntervalEntries(TimeInterval.Day,
-                        getEntryCount(TimeInterval.Day) - intervalCount * convertSingleton(interval));
+     * @param metric The CountMetric to get the entries of.
+     * @param cards The cards to get the entries of.
+     * @return The cached entries of each card in the same order as the cards, without the current
+     *         hour. They must not be changed.
+     */
+    private List<IntSeries> getFinishedEntries(CountMetric metric, List<TimeCard> cards) {
+        CachedWindow[] cardWindows = new CachedWindow[cards.size()];
+        List<TimeCard> missed = new ArrayList<>();
+        for(int i = 0; i < cards.size(); i++) {
+            TimeCard card = cards.get(i);
+            cardWindows[i] = getCached(metric, card.interval, card.backCount);
+            if(cardWindows[i] == null || cardWindows[i].entries == null)
+                missed.add(card);
+        }
+
+        if(!missed.isEmpty()) {
+            final TimeInterval[] intervals = new TimeInterval[missed.size()];
+            final int[] backCounts = new int[missed.size()];
+            for(int i = 0; i < missed.size(); i++) {
+                intervals[i] = missed.get(i).interval;
+                backCounts[i] = missed.get(i).backCount;
             }
 
-            current += sumIntervalEntries(TimeInterval.Hour);
+            EngineQuery<List<IntSeries>> query = new EngineQuery<List<IntSeries>>() {
+                @Override
+                List<IntSeries> run(CountEngine engine) {
+                    return engine.getEntries(intervals, backCounts, 0);
+                }
+            };
+
+            List<IntSeries> entries = query(metric, query);
+            for(int i = 0, m = 0; i < cards.size(); i++) {
+                if(cardWindows[i] != null && cardWindows[i].entries != null)
+                    continue;
+
+                TimeCard card = cards.get(i);
+                cardWindows[i] = toWindow(entries.get(m++));
+                putCached(metric, card.interval, card.backCount, cardWindows[i], query.generation);
+            }
         }
 
-        return current;
+        List<IntSeries> points = new ArrayList<>(cards.size());
+        for(CachedWindow window : cardWindows)
+            points.add(window.entries);
+
+        return points;
     }
 
     /**
-     * Gives a cursor that queries the table for the given TimeInterval starting from the row with
-     * an id of start until the end of the table.
+     * Computes the sum, count, min and max of the entries in the store for the TimeInterval at
+     * positions from start to end inclusive. For the SQLite stores the whole aggregate is computed
+     * by one statement, so no rows are copied out of the database.
      *
-     * @param interval The TimeInterval whose corresponding table to query.
-     * @param start The id of the first row in the cursor. 1 is the first possible value.
-     * @return The cursor object that will transverse rows in the table for the TimeInterval from
-     *         the row with an id of start to the last entry.
+     * @param interval The TimeInterval whose corresponding store to aggregate.
+     * @param start The position of the first entry in the range. 1 is the first possible value.
+     * @param end The position of the last entry in the range.
+     * @return The aggregate of the entries in the range.
+     */
+    public IntervalAggregate aggregate(final TimeInterval interval, final int start,
+                                       final int end) {
+        return query(CountMetric.Wakes, new EngineQuery<IntervalAggregate>() {
+            @Override
+            IntervalAggregate run(CountEngine engine) {
+                return engine.aggregate(interval, start, end);
+            }
+        });
+    }
+
+    /**
+     * Runs a query of the engine of a CountMetric. With the SQLite stores it runs on the engine of
+     * the queries, which is opened again after every write, and a query that a write happened
+     * during is run again on the new engine, since its stores may have read from before and after
+     * the write. The other stores are queried through the engines that write.
+     *
+     * @param metric The CountMetric to query.
+     * @param query The query, which is given the generation its result is from.
+     * @return The result of the query.
      */
-    private Cursor getEntriesCursor(TimeInterval interval, int start) {
-        int end = getEntryCount(interval);
-        String table = getTableName(interval);
+    private <T> T query(CountMetric metric, EngineQuery<T> query) {
+        if(backend != StoreBackend.SQLITE) {
+            synchronized(engineLock) {
+                query.generation = getGeneration();
+                return query.run(engines[metric.ordinal()]);
+            }
+        }
 
-        return database.query(table, new String[] {TimeCounterHelper.COLUMN_COUNT},
-                TimeCounterHelper.COLUMN_ID + " >= " + Integer.toString(start)
-                + " and " + TimeCounterHelper.COLUMN_ID + " <= " + Integer.toString(end),
-                null, null, null, null);
+        synchronized(readLock) {
+            for(int attempt = 1; ; attempt++) {
+                long queried = getGeneration();
+
+                T result;
+                try {
+                    result = query.run(getReader(metric, queried));
+                } catch(RuntimeException ex) {
+                    // A write can take away rows the engine still expects, such as by compacting
+                    // them or loading a history.
+                    if(attempt == MAX_QUERY_ATTEMPTS || getGeneration() == queried)
+                        throw ex;
+                    continue;
+                }
+
+                if(attempt == MAX_QUERY_ATTEMPTS || getGeneration() == queried) {
+                    query.generation = queried;
+                    return result;
+                }
+            }
+        }
     }
 
     /**
-     * Sums the desired last entries for a provided table type in the database. This sum does not
-     * include the current hour/day/month figure, only what has already been written to the database
-     * and is not currently happening. This is more a convenience method
+     * Gives the engine of the queries of a CountMetric as of a generation, opening it if it is not
+     * open or is from an earlier generation. Must be called holding the read lock.
      *
-     * @param interval The TimeInterval whose corresponding table to query.
-     * @param backCount How far back to go in the table not including the current entry.
-     * @return The sum of the desired entries.
+     * @param metric The CountMetric to get the engine of.
+     * @param generation The current generation.
+     * @return The engine of the queries of the metric.
+     * @throws SQLException If a store can not be opened.
      */
-    private int sumIntervalEntries(TimeInterval interval, int backCount) {
-        int entryCount = getEntryCount(interval);
-        int start = (entryCount - backCount < 0) ? 1 : entryCount - backCount + 1;
+    private CountEngine getReader(CountMetric metric, long generation) throws SQLException {
+        if(readersGeneration != generation) {
+            closeReaders();
+            readersGeneration = generation;
+        }
 
-        Cursor cursor = getEntriesCursor(interval, start);
-        cursor.moveToFirst();
+        CountEngine reader = readers[metric.ordinal()];
+        if(reader == null) {
+            reader = new CountEngine(openStores(metric, true), null);
+            reader.setReadOnly(true);
+            readers[metric.ordinal()] = reader;
+        }
 
-        int sum = 0;
-        while(!cursor.isAfterLast()) {
-            sum += cursor.getInt(0);
-            cursor.moveToNext();
+        return reader;
+    }
+
+    /**
+     * Closes every open engine of the queries. Must be called holding the read lock.
+     */
+    private void closeReaders() {
+        for(int m = 0; m < readers.length; m++) {
+            if(readers[m] != null) {
+                readers[m].close();
+                readers[m] = null;
+            }
         }
+    }
+
+    /**
+     * Drops every cached window by moving on to the next generation.
+     */
+    private synchronized void invalidate() {
+        generation++;
+        windows.clear();
+    }
+
+    /**
+     * @return The current generation, to be taken before a query whose result will be cached.
+     */
+    private synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @param metric The CountMetric to get the live value of.
+     * @return The value of the metric so far in the current hour.
+     */
+    private static int getHourValue(CountMetric metric) {
+        return ScreenCountService.getHourValue(metric);
+    }
+
+    /**
+     * @param metric The CardMetric to get the live values of.
+     * @return The value of each source of the metric so far in the current hour, in the order of
+     *         getSources, to update the current hour of a TimeCardCache in place.
+     */
+    public static int[] getHourValues(CardMetric metric) {
+        CountMetric[] sources = metric.getSources();
+        int[] hourValues = new int[sources.length];
+        for(int i = 0; i < sources.length; i++)
+            hourValues[i] = getHourValue(sources[i]);
 
-        cursor.close();
-        return sum;
+        return hourValues;
     }
 
     /**
-     * Sums all the entries for the provided TimeInterval.
+     * Gets the cached window, if it is from the current generation.
      *
-     * @param interval The TimeInterval for which to sum all the entries in the corresponding
-     *                 table.
-     * @return The sum of all the entries in the corresponding table for the TimeInterval.
+     * @param metric The CountMetric of the window.
+     * @param interval The TimeInterval of the window.
+     * @param backCount How far back the window goes including the current entry.
+     * @return The cached window, or null if there is none.
      */
-    private int sumIntervalEntries(TimeInterval interval) {
-        return sumIntervalEntries(interval, getEntryCount(interval));
+    private synchronized CachedWindow getCached(CountMetric metric, TimeInterval interval,
+                                                int backCount) {
+        CachedWindow window = windows.get(getWindowKey(metric, interval, backCount));
+        return window != null && window.generation == generation ? window : null;
     }
 
     /**
-     * Adds the provided ContentValues to the table for the TimeInterval. If the table is cyclical
-     * then the row will be overwritten when needed, for example with the hour table.
+     * Caches a window unless there was a write since it was queried, in which case it may already be
+     * out of date.
      *
-     * @param interval The table to update.
-     * @param values The ContentValues object which has the amount of wakes to add to the table.
+     * @param metric The CountMetric of the window.
+     * @param interval The TimeInterval of the window.
+     * @param backCount How far back the window goes including the current entry.
+     * @param window The window to cache.
+     * @param queried The generation from before the window was queried.
      */
-    private void updateTable(TimeInterval interval, ContentValues values) {
-        String table = getTableName(interval);
+    private synchronized void putCached(CountMetric metric, TimeInterval interval, int backCount,
+                                        CachedWindow window, long queried) {
+        if(queried != generation)
+            return;
 
-        // Update the database with the screen wakes in the current hour. If the amount of rows,
-        // updated is 0 that means it's the first day and therefore there is no id to update, it
-        // must be inserted first to get the id.
-        database.insert(table, null, values);
+        window.generation = queried;
+        windows.put(getWindowKey(metric, interval, backCount), window);
     }
 
     /**
-     * Given a TimeInterval, returns the table name corresponding to it.
+     * @param metric The CountMetric of the window.
+     * @param interval The TimeInterval of the window.
+     * @param backCount How far back the window goes including the current entry.
+     * @return The key of the window in the result cache.
+     */
+    private static long getWindowKey(CountMetric metric, TimeInterval interval, int backCount) {
+        return ((long) metric.ordinal() << 40) | ((long) interval.ordinal() << 32) | backCount;
+    }
+
+    /**
+     * Makes a window out of entries queried without the current hour. The engine gives the entries
+     * of every query in a new array that nothing else holds, so they are not copied.
      *
-     * @param interval The TimeInterval to get the table name for.
-     * @return A string of the table name in the database.
+     * @param entries The entries of the window.
+     * @return The window over the entries.
      */
-    private String getTableName(TimeInterval interval) {
-        if(interval == TimeInterval.Hour)
-            return TimeCounterHelper.TABLE_HOUR_NAME;
-        else if(interval == TimeInterval.Day)
-            return TimeCounterHelper.TABLE_DAY_NAME;
-        else if(interval == TimeInterval.Week)
-            return TimeCounterHelper.TABLE_WEEK_NAME;
-        else if(interval == TimeInterval.Month)
-            return  TimeCounterHelper.TABLE_MONTH_NAME;
+    private static CachedWindow toWindow(IntSeries entries) {
+        CachedWindow window = new CachedWindow();
+        window.entries = entries;
+        window.count = DataUtils.sum(entries);
 
-        return "";
+        return window;
     }
 
     /**
-     * Gets the amount of relevant entries for the TimeInterval. For example if there are 7 weeks
-     * written so far to the database then 7 is returned when TimeInterval.Week is given. However,
-     * for a table like the hour table, it does not return 24, the usual size, but the current hours
-     * passed in the current day. Just a wrapper around getting hourSize, weekSize, etc, based on
-     * the TimeInterval.
+     * Copies cached entries and adds the current hour to the last of them, so the caller can change
+     * the copy without touching the cache.
      *
-     * @param interval The TimeInterval to get the entry counts for.
-     * @return The amount of relevant entries for that TimeInterval.
+     * @param entries The cached entries.
+     * @param hourValue The value of the current hour.
+     * @return The entries including the current hour.
      */
-    private int getEntryCount(TimeInterval interval) {
-        if(interval == TimeInterval.Hour)
-            return hourSize;
-        else if(interval == TimeInterval.Day)
-            return daySize;
-        else if(interval == TimeInterval.Week)
-            return weekSize;
-        else if(interval == TimeInterval.Month)
-            return monthSize;
+    private static IntSeries withCurrentHour(IntSeries entries, int hourValue) {
+        IntSeries current = new IntSeries(entries.toArray());
+        if(current.size() > 0)
+            current.set(current.size() - 1, current.get(current.size() - 1) + hourValue);
+
+        return current;
+    }
 
-        return -1;
+    /**
+     * Opens the engine of every CountMetric.
+     *
+     * @throws SQLException If a store can not be opened.
+     */
+    private void openEngines() throws SQLException {
+        for(CountMetric metric : CountMetric.values())
+            engines[metric.ordinal()] = openEngine(metric);
+    }
+
+    /**
+     * Closes the engine of every CountMetric.
+     */
+    private void closeEngines() {
+        for(CountEngine engine : engines)
+            engine.close();
+    }
+
+    /**
+     * Opens the store of the current backend for every TimeInterval of the CountMetric and the
+     * engine over them.
+     *
+     * @param metric The CountMetric the stores keep.
+     * @return The engine of the metric.
+     * @throws SQLException If a store can not be opened.
+     */
+    private CountEngine openEngine(CountMetric metric) throws SQLException {
+        CountEngine engine = new CountEngine(openStores(metric, false), transactions);
+        engine.setArchiveAge(archiveAge);
+
+        return engine;
     }
 
     /**
-     * Gets the table size for the provided table name by querying all rows and counting how many
-     * matched.
+     * Opens the store of the current backend for every TimeInterval of the CountMetric.
      *
-     * @param tableName The table to get the size of.
-     * @return The size of the table.
+     * @param metric The CountMetric the stores keep.
+     * @param readOnly True if the stores are only read.
+     * @return The store for each TimeInterval, indexed by the TimeInterval ordinal.
+     * @throws SQLException If a store can not be opened.
      */
-    private int queryTableSize(String tableName) {
-        Cursor cursor = database.query(tableName, columns, null, null, null, null, null);
-        int count = cursor.getCount();
-        cursor.close();
+    private CountStore[] openStores(CountMetric metric, boolean readOnly) throws SQLException {
+        CountStore[] stores = new CountStore[TimeInterval.values().length];
+
+        for(TimeInterval interval : TimeInterval.values()) {
+            String name = TimeCounterHelper.getTableName(metric, getTableName(interval));
+
+            if(backend == StoreBackend.SQLITE) {
+                stores[interval.ordinal()] = new SQLiteCountStore(database, name, readOnly);
+            } else if(backend == StoreBackend.MEMORY) {
+                stores[interval.ordinal()] = new MemoryCountStore();
+            } else {
+                File file = new File(context.getFilesDir(), name + ".counts");
+                try {
+                    stores[interval.ordinal()] = new MappedCountStore(file);
+                } catch(IOException ex) {
+                    throw new SQLException("Unable to open " + file, ex);
+                }
+            }
+        }
 
-        return count;
+        return stores;
     }
 
     /**
-     * Returns the conversion factor between a TimeInterval and it's next smallest unit.
+     * Given a TimeInterval, returns the table name corresponding to it.
      *
-     * @param interval The TimeInterval to convert.
-     * @return The conversion answer between the TimeInterval and the next smallest TimeInterval.
+     * @param interval The TimeInterval to get the table name for.
+     * @return A string of the table name in the database.
      */
-    private int convertSingleton(TimeInterval interval) {
-        if(interval == TimeInterval.Day)
-            return DAY_TO_HOUR;
+    private String getTableName(TimeInterval interval) {
+        if(interval == TimeInterval.Hour)
+            return TimeCounterHelper.TABLE_HOUR_NAME;
+        else if(interval == TimeInterval.Day)
+            return TimeCounterHelper.TABLE_DAY_NAME;
         else if(interval == TimeInterval.Week)
-            return WEEK_TO_DAY;
+            return TimeCounterHelper.TABLE_WEEK_NAME;
         else if(interval == TimeInterval.Month)
-            return MONTH_TO_DAY;
+            return  TimeCounterHelper.TABLE_MONTH_NAME;
 
-        return 1;
+        return "";
     }
 }
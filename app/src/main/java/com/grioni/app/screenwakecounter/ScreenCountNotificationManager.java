@@ -4,10 +4,18 @@ import android.app.Notification;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.NotificationManagerCompat;
 
+import java.util.concurrent.Callable;
+
 import models.TimeInterval;
+import services.CountEvent;
+import services.CountEventBus;
+import services.ScreenCountService;
 import utils.LabelUtils;
 
 /**
@@ -15,21 +23,69 @@ import utils.LabelUtils;
  * @created 12/23/15
  *
  * A manager for the persistent application notification that displays the current screen wakes
- * for a specific amount of time defined in the settings.
+ * for a specific amount of time defined in the settings. The count is queried in the background,
+ * and the notification keeps showing the last count until the new one is ready.
+ *
+ * Only the finished hours of the count are queried, when the window or the hours change. A screen
+ * wake just adds the live count of the current hour to them without a query. A change is drawn
+ * right away if nothing was drawn in the last second, and the changes that follow within the
+ * second are drawn together at its end, so the notification is posted at most once a second
+ * however many wakes come in, and not at all when its text would stay the same.
  */
 public class ScreenCountNotificationManager {
+    // The least time between two redraws of the notification.
+    private static final long REFRESH_WINDOW = 1000;
+
     private static Context context;
 
     private static NotificationCompat.Builder builder;
     private static NotificationManagerCompat manager;
     private static ScreenCountDatabase countDatabase;
+    private static CountQueryExecutor queryExecutor;
 
     private static int NOTIF_ID;
 
     private static int icon;
     private static int bgcolor;
 
-    private static int count;
+    // The count of the finished hours in the window. The current hour is added when drawn.
+    private static int baseCount;
+
+    private static Handler handler;
+    private static boolean renderPending;
+    private static long lastRender;
+    private static String shownTitle;
+
+    // Only written hours change the finished count, anything else only changes the live count. The
+    // wakes of the hours a rollover wrote have moved out of the live count, so they are added to
+    // the finished count until the query comes back, which keeps the count from dropping.
+    private static CountEventBus.Listener onCountChange = new CountEventBus.Listener() {
+        @Override
+        public void onCountEvent(CountEvent event) {
+            if(event.type == CountEvent.Type.ROLLOVER)
+                baseCount += event.hourWakes;
+
+            if(event.writesHours())
+                refreshCount();
+            updateLiveCount();
+        }
+    };
+
+    private static Runnable render = new Runnable() {
+        @Override
+        public void run() {
+            renderPending = false;
+
+            String title = buildTitle();
+            if(title.equals(shownTitle))
+                return;
+
+            builder.setContentTitle(title);
+            shownTitle = title;
+            lastRender = SystemClock.uptimeMillis();
+            update();
+        }
+    };
 
     private static TimeInterval interval;
     private static int backCount;
@@ -48,15 +104,26 @@ public class ScreenCountNotificationManager {
         builder = new NotificationCompat.Builder(context);
         manager = NotificationManagerCompat.from(context);
         countDatabase = ((InstanceApplication) context.getApplicationContext()).getCountDatabase();
+        queryExecutor = ((InstanceApplication) context.getApplicationContext()).getQueryExecutor();
+        handler = new Handler(Looper.getMainLooper());
 
         NOTIF_ID = id;
 
         interval = TimeInterval.Hour;
         backCount = 1;
-        updateLabelAndCount();
+
+        // The notification needs a title before it is first built for the foreground service.
+        shownTitle = buildTitle();
+        builder.setContentTitle(shownTitle);
 
         initResources();
         setupBuilder();
+        refreshCount();
+
+        // The listener is static, so subscribing it again on a second setup is avoided.
+        CountEventBus eventBus = ((InstanceApplication) context.getApplicationContext()).getEventBus();
+        eventBus.unsubscribe(onCountChange);
+        eventBus.subscribe(onCountChange);
     }
 
     /**
@@ -67,12 +134,34 @@ public class ScreenCountNotificationManager {
     }
 
     /**
-     * Requeries the count database and updates the notification text.
+     * Redraws the notification with the live count of the current hour, without querying the
+     * database. Used for screen wakes, which only change the current hour.
+     */
+    public static void updateLiveCount() {
+        scheduleRender();
+    }
+
+    /**
+     * Requeries the finished hours of the count in the background and redraws the notification once
+     * they are ready. Only the latest refresh updates the notification.
      */
     public static void refreshCount() {
-        count = countDatabase.getCount(interval, backCount);
-        updateLabelAndCount();
-        update();
+        final TimeInterval queryInterval = interval;
+        final int queryBackCount = backCount;
+
+        String key = "finished:" + queryInterval + queryBackCount;
+        queryExecutor.submit(ScreenCountNotificationManager.class, key, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return countDatabase.getFinishedCount(queryInterval, queryBackCount);
+            }
+        }, new CountQueryExecutor.Callback<Integer>() {
+            @Override
+            public void onResult(Integer result) {
+                baseCount = result;
+                scheduleRender();
+            }
+        });
     }
 
     /**
@@ -85,8 +174,7 @@ public class ScreenCountNotificationManager {
     public static void updateInfo(TimeInterval _interval, int _backCount) {
         interval = _interval;
         backCount = _backCount;
-        updateLabelAndCount();
-        update();
+        refreshCount();
     }
 
     /**
@@ -96,8 +184,7 @@ public class ScreenCountNotificationManager {
      */
     public static void updateInterval(TimeInterval _interval) {
         interval = _interval;
-        updateLabelAndCount();
-        update();
+        refreshCount();
     }
 
     /**
@@ -107,8 +194,7 @@ public class ScreenCountNotificationManager {
      */
     public static void updateBackcount(int _backCount) {
         backCount = _backCount;
-        updateLabelAndCount();
-        update();
+        refreshCount();
     }
 
     /**
@@ -121,14 +207,29 @@ public class ScreenCountNotificationManager {
     }
 
     /**
-     * Updates the label and count fields for the notification and updates the corresponding text
-     * in the notification.
+     * Redraws the notification right away if it was not redrawn within the refresh window, or else
+     * once the window is over. If a redraw is already waiting, that one picks up this change too.
      */
-    private static void updateLabelAndCount() {
-        String label = LabelUtils.last(interval, backCount);
-        count = countDatabase.getCount(interval, backCount);
+    private static void scheduleRender() {
+        if(renderPending)
+            return;
+
+        long wait = lastRender + REFRESH_WINDOW - SystemClock.uptimeMillis();
+        if(wait <= 0) {
+            render.run();
+            return;
+        }
 
-        builder.setContentTitle(label + count);
+        renderPending = true;
+        handler.postDelayed(render, wait);
+    }
+
+    /**
+     * @return The label of the interval followed by the finished and live count of the window.
+     */
+    private static String buildTitle() {
+        String label = LabelUtils.last(interval, backCount);
+        return label + (baseCount + ScreenCountService.getHourCount());
     }
 
     /**
@@ -141,8 +242,8 @@ public class ScreenCountNotificationManager {
 
     /**
      * Setup all the fields of the notification using the notification builder. The only field
-     * that is not set through here is the content title. This is set when the label and count are
-     * updated through ScreenCountNotificationManager#updateLabelAndCount.
+     * that is not set through here is the content title. This is set when the notification is
+     * redrawn through ScreenCountNotificationManager#scheduleRender.
      */
     private static void setupBuilder() {
         Intent notifIntent = new Intent(context, MainActivity.class);
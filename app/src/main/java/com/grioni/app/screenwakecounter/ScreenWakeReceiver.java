@@ -8,16 +8,47 @@ import services.ScreenCountService;
 
 /**
  * Created by Matias Grioni on 12/15/14.
+ *
+ * Receives the screen wakes while the ScreenCountService is running, and the device being turned
+ * on. The ScreenCountService registers its own instance with itself, and hands it each screen wake,
+ * screen off and unlock directly in the same process. The instance in the manifest only starts the
+ * service once the device has booted.
  */
 public class ScreenWakeReceiver extends BroadcastReceiver {
+    private ScreenCountService countService;
+
+    /**
+     * Creates the receiver declared in the manifest, which starts the ScreenCountService.
+     */
+    public ScreenWakeReceiver() {
+    }
+
+    /**
+     * Creates a receiver that gives the screen wakes straight to the running service.
+     *
+     * @param countService The service to count the screen wakes with.
+     */
+    public ScreenWakeReceiver(ScreenCountService countService) {
+        this.countService = countService;
+    }
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        // The action is either for screen off and screen on as these
-        // are the only actions for which this receiver should be
-        // registered for.
+        // The service registered this receiver itself, so a screen change does not need to go
+        // through startService.
+        if(countService != null) {
+            String action = intent.getAction();
+            if(Intent.ACTION_SCREEN_ON.equals(action))
+                countService.onScreenWake();
+            else if(Intent.ACTION_SCREEN_OFF.equals(action))
+                countService.onScreenOff();
+            else if(Intent.ACTION_USER_PRESENT.equals(action))
+                countService.onUnlock();
+
+            return;
+        }
 
-        // Also when the device is turned on, this onReceive method will be called, so the service
+        // When the device is turned on, this onReceive method will be called, so the service
         // will be started once the device is turned on.
         Intent screenStateIntent = new Intent(context, ScreenCountService.class);
         context.startService(screenStateIntent);
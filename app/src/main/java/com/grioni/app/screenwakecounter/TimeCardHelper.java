@@ -8,7 +8,7 @@ import android.database.sqlite.SQLiteOpenHelper;
  * Created by Matias Grioni on 1/6/15.
  */
 public class TimeCardHelper extends SQLiteOpenHelper {
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 2;
     public static final String DATABASE_NAME = "timecards.db";
     public static final String TABLE_CARDS_NAME = "timecards";
 
@@ -16,13 +16,15 @@ public class TimeCardHelper extends SQLiteOpenHelper {
     public static final String COLUMN_TYPE = "type";
     public static final String COLUMN_BACKCOUNT = "backcount";
     public static final String COLUMN_COLLAPSED = "collapsed";
+    public static final String COLUMN_METRIC = "metric";
 
     // TODO: text or integer for backcount
     public static final String CREATE_TABLE_CARDS =
             "CREATE TABLE " + TABLE_CARDS_NAME + "("
             + COLUMN_ID + " integer primary key autoincrement, "
             + COLUMN_TYPE + " text not null ," + COLUMN_BACKCOUNT
-            + " text not null, " + COLUMN_COLLAPSED + " integer);";
+            + " text not null, " + COLUMN_COLLAPSED + " integer, "
+            + COLUMN_METRIC + " text not null default 'Wakes');";
 
     /**
      *
@@ -39,7 +41,10 @@ public class TimeCardHelper extends SQLiteOpenHelper {
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_CARDS_NAME);
-        onCreate(db);
+        // Version 2 adds what each card shows. The cards from before all show the screen wakes.
+        if(oldVersion < 2) {
+            db.execSQL("ALTER TABLE " + TABLE_CARDS_NAME + " ADD COLUMN " + COLUMN_METRIC
+                    + " text not null default 'Wakes'");
+        }
     }
 }
@@ -7,6 +7,7 @@ import android.view.View;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import models.CardMetric;
 import models.TimeCard;
 import models.TimeCardCache;
 import models.TimeInterval;
@@ -93,7 +94,13 @@ public class TimeCardHolder extends RecyclerView.ViewHolder {
         share.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                String shareText = "Screen was turned on " + cache.count + " times in the last ";
+                String shareText;
+                if(card.metric == CardMetric.Wakes)
+                    shareText = "Screen was turned on " + cache.count + " times in the last ";
+                else
+                    shareText = card.metric.label + " was " + cache.count + card.metric.unit
+                            + " in the last ";
+
                 if (card.backCount == 1)
                     shareText += card.interval.name().toLowerCase();
                 else
@@ -116,7 +123,7 @@ public class TimeCardHolder extends RecyclerView.ViewHolder {
         this.card = card;
 
         String label = LabelUtils.last(card.interval, card.backCount);
-        title.setText(label + cache.count);
+        title.setText(label + cache.count + card.metric.unit);
 
         String axis = "Hour";
         if (card.backCount == 1) {
@@ -20,6 +20,7 @@ import android.view.ViewGroup;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import models.TimeCard;
 import models.TimeCardCache;
@@ -88,6 +89,7 @@ public class TimeCardsFragment extends Fragment {
     private TimeCardAdapter cardsAdapter;
 
     private ScreenCountDatabase countDatabase;
+    private CountQueryExecutor queryExecutor;
     private TimeCardsManager cardsManager;
     private Map<TimeCard, TimeCardCache> cache;
 
@@ -109,14 +111,16 @@ public class TimeCardsFragment extends Fragment {
 
         cardsManager = ((InstanceApplication) getActivity().getApplicationContext()).getCardsManager();
         countDatabase = ((InstanceApplication) getActivity().getApplicationContext()).getCountDatabase();
+        queryExecutor = ((InstanceApplication) getActivity().getApplicationContext()).getQueryExecutor();
 
         cache = new HashMap<>();
-        for(TimeCard card : cardsManager.getCards()) {
-            List<Integer> counts = countDatabase.getEntries(card.interval, card.backCount);
+        updateCache();
+    }
 
-            TimeCardCache cardCache = new TimeCardCache(counts);
-            cache.put(card, cardCache);
-        }
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        queryExecutor.cancel(this);
     }
 
     @Override
@@ -143,18 +147,65 @@ public class TimeCardsFragment extends Fragment {
     }
 
     /**
-     * Updates the card adapter with the cards from the TimeCardsManager. Also updates the
-     * GraphDetailFragment if any is visible.
+     * Updates the card adapter with the cards from the TimeCardsManager. The cards are shown right
+     * away with what is cached for them, and shown again once their entries are queried.
      */
     public void update() {
-        for (TimeCard card : cardsManager.getCards()) {
-            List<Integer> points = countDatabase.getEntries(card.interval, card.backCount);
+        updateCache();
+        cardsAdapter.update(cardsManager.getCards(), cache);
+    }
 
-            TimeCardCache cardCache = new TimeCardCache(points);
-            cache.put(card, cardCache);
+    /**
+     * Changes the current hour of every card in place from the live values of its sources, without
+     * querying the database. A full update is still needed once the hour is written. Only a card
+     * whose cache was not made from its finished entries is queried again.
+     */
+    public void updateCurrentHour() {
+        boolean requery = false;
+        for(Map.Entry<TimeCard, TimeCardCache> entry : cache.entrySet()) {
+            int[] hourValues = ScreenCountDatabase.getHourValues(entry.getKey().metric);
+            if(!entry.getValue().setHourValues(hourValues))
+                requery = true;
         }
 
-        cardsAdapter.update(cardsManager.getCards(), cache);
+        cardsAdapter.notifyDataSetChanged();
+        if(requery)
+            updateCache();
+    }
+
+    /**
+     * Queries the entries of all the cards in one batch in the background and puts them in the
+     * cache once they are ready. Cards that have nothing cached yet are given an empty cache until
+     * then.
+     */
+    private void updateCache() {
+        final List<TimeCard> cards = cardsManager.getCards();
+
+        String key = "cards";
+        for(TimeCard card : cards) {
+            key += ":" + card.metric + card.interval + card.backCount;
+
+            if(!cache.containsKey(card))
+                cache.put(card, new TimeCardCache());
+        }
+
+        queryExecutor.submit(this, key, new Callable<List<TimeCardCache>>() {
+            @Override
+            public List<TimeCardCache> call() {
+                return countDatabase.getCaches(cards);
+            }
+        }, new CountQueryExecutor.Callback<List<TimeCardCache>>() {
+            @Override
+            public void onResult(List<TimeCardCache> caches) {
+                // The result may be shared with another request for the same cards, so each card
+                // gets its own cache, which copies its entries only once its current hour changes.
+                for(int i = 0; i < cards.size(); i++)
+                    cache.put(cards.get(i), new TimeCardCache(caches.get(i)));
+
+                if(cardsAdapter != null)
+                    cardsAdapter.update(cardsManager.getCards(), cache);
+            }
+        });
     }
 
 }
@@ -9,6 +9,7 @@ import android.database.sqlite.SQLiteDatabase;
 import java.util.ArrayList;
 import java.util.List;
 
+import models.CardMetric;
 import models.TimeCard;
 import models.TimeInterval;
 
@@ -29,7 +30,8 @@ public class TimeCardsManager {
     private SQLiteDatabase database;
     private TimeCardHelper tcHelper;
     private String[] columns = { TimeCardHelper.COLUMN_ID, TimeCardHelper.COLUMN_TYPE,
-            TimeCardHelper.COLUMN_BACKCOUNT, TimeCardHelper.COLUMN_COLLAPSED };
+            TimeCardHelper.COLUMN_BACKCOUNT, TimeCardHelper.COLUMN_COLLAPSED,
+            TimeCardHelper.COLUMN_METRIC };
 
     /**
      * Creates a TimeCardsManager instance if none exist or returns the
@@ -104,6 +106,7 @@ public class TimeCardsManager {
         values.put(TimeCardHelper.COLUMN_TYPE, card.interval.name());
         values.put(TimeCardHelper.COLUMN_BACKCOUNT, card.backCount);
         values.put(TimeCardHelper.COLUMN_COLLAPSED, card.collapsed);
+        values.put(TimeCardHelper.COLUMN_METRIC, card.metric.name());
 
         database.insert(TimeCardHelper.TABLE_CARDS_NAME, null, values);
     }
@@ -158,6 +161,7 @@ public class TimeCardsManager {
         values.put(TimeCardHelper.COLUMN_TYPE, card.interval.name());
         values.put(TimeCardHelper.COLUMN_BACKCOUNT, card.backCount);
         values.put(TimeCardHelper.COLUMN_COLLAPSED, card.collapsed ? 1 : 0);
+        values.put(TimeCardHelper.COLUMN_METRIC, card.metric.name());
 
         // Update the table, which starts id at 1, at the (position+1)th id, with the passed in card
         // information.
@@ -229,6 +233,7 @@ public class TimeCardsManager {
 
         int collapsed = cursor.getInt(3);
         card.collapsed = (collapsed != 0);
+        card.metric = CardMetric.valueOf(cursor.getString(4));
 
         return card;
     }
@@ -269,6 +274,7 @@ public class TimeCardsManager {
         if (card1 == null || card2 == null)
             return false;
 
-        return card1.backCount == card2.backCount && card1.interval == card2.interval;
+        return card1.backCount == card2.backCount && card1.interval == card2.interval &&
+                card1.metric == card2.metric;
     }
 }
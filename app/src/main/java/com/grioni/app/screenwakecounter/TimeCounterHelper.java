@@ -1,14 +1,27 @@
 package com.grioni.app.screenwakecounter;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import models.CountMetric;
 
 /**
  * Created by Matias Grioni on 12/16/14.
+ *
+ * Each of the hour, day, week, and month tables has one row per bucket, keyed by the wall clock
+ * time the bucket started at. The seq column is the position of the bucket in its table, starting
+ * at 1, and is indexed along with the count and running total so that looking up the last entries
+ * of a table never has to touch the table itself.
+ *
+ * The tables above are of the screen wakes. Every other CountMetric has the same four tables with
+ * the name of the metric in front, such as screen_on_hour.
  */
 public class TimeCounterHelper extends SQLiteOpenHelper {
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 6;
     public static final String DATABASE_NAME = "timecounter.db";
 
     public static final String TABLE_HOUR_NAME = "hour";
@@ -16,28 +29,38 @@ public class TimeCounterHelper extends SQLiteOpenHelper {
     public static final String TABLE_WEEK_NAME = "week";
     public static final String TABLE_MONTH_NAME = "month";
 
-    public static final String COLUMN_ID = "_id";
+    public static final String COLUMN_START = "start";
+    public static final String COLUMN_SEQ = "seq";
     public static final String COLUMN_COUNT = "count";
+    public static final String COLUMN_CUMULATIVE = "cumulative";
+
+    // The metadata table has a row for each of the count tables with its size and the start time
+    // of its last row, so that they are known without scanning the count tables.
+    public static final String TABLE_METADATA_NAME = "metadata";
+    public static final String COLUMN_NAME = "name";
+    public static final String COLUMN_SIZE = "size";
+    public static final String COLUMN_LAST_START = "last_start";
 
-    private static final String CREATE_TABLE_HOUR =
-            "CREATE TABLE " + TABLE_HOUR_NAME + "("
-            + COLUMN_ID + " integer primary key, "
-            + COLUMN_COUNT + " text not null);";
+    // The archive table has the buckets of the count tables that are old enough to be compressed.
+    // Each row is a block of buckets of one table, with the running total before the block and the
+    // sum of the block, so a range can be summed from the block rows alone.
+    public static final String TABLE_ARCHIVE_NAME = "archive";
+    public static final String COLUMN_BLOCK = "block";
+    public static final String COLUMN_SUM = "sum";
+    public static final String COLUMN_STARTS = "starts";
+    public static final String COLUMN_COUNTS = "counts";
 
-    private static final String CREATE_TABLE_DAY =
-            "CREATE TABLE " + TABLE_DAY_NAME + "("
-            + COLUMN_ID + " integer primary key, "
-            + COLUMN_COUNT + " text not null);";
+    private static final String[] TABLES =
+            { TABLE_HOUR_NAME, TABLE_DAY_NAME, TABLE_WEEK_NAME, TABLE_MONTH_NAME };
 
-    private static final String CREATE_TABLE_WEEK =
-            "CREATE TABLE " + TABLE_WEEK_NAME + "("
-            + COLUMN_ID + " integer primary key, "
-            + COLUMN_COUNT + " text not null);";
+    // The prefix of the tables of each CountMetric, indexed by the CountMetric ordinal.
+    private static final String[] METRIC_PREFIXES = { "", "screen_on_", "sessions_", "unlocks_" };
 
-    private static final String CREATE_TABLE_MONTH =
-            "CREATE TABLE " + TABLE_MONTH_NAME + "("
-            + COLUMN_ID + " integer primary key autoincrement, "
-            + COLUMN_COUNT + " text not null);";
+    // Tables from before version 3 are renamed with this prefix on upgrade, and then copied into the
+    // new tables a batch at a time by migrateLegacyBatch once the database is open.
+    private static final String LEGACY_PREFIX = "legacy_";
+    private static final String LEGACY_COLUMN_ID = "_id";
+    private static final int MIGRATION_BATCH_SIZE = 500;
 
     /**
      *
@@ -45,23 +68,259 @@ public class TimeCounterHelper extends SQLiteOpenHelper {
      */
     public TimeCounterHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+
+        // With write ahead logging the notification and cards can keep reading while an hour is
+        // being written.
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
-        db.execSQL(CREATE_TABLE_HOUR);
-        db.execSQL(CREATE_TABLE_DAY);
-        db.execSQL(CREATE_TABLE_WEEK);
-        db.execSQL(CREATE_TABLE_MONTH);
+        for(String table : TABLES)
+            createTable(db, table);
+
+        createMetadataTable(db);
+        createArchiveTable(db);
+        createMetricTables(db);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_HOUR_NAME);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_DAY_NAME);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_WEEK_NAME);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_MONTH_NAME);
+        // Version 3 stores the counts as integers and keys the rows by their start time. The old
+        // tables are only renamed here, since this runs inside of a single transaction. Their rows
+        // are moved over in batches by migrateLegacyBatch once the database is open.
+        if(oldVersion < 3) {
+            for(String table : TABLES)
+                db.execSQL("ALTER TABLE " + table + " RENAME TO " + LEGACY_PREFIX + table);
+
+            onCreate(db);
+        } else {
+            // Version 4 adds the metadata table. This is the only time the count tables have to be
+            // scanned for their sizes.
+            if(oldVersion < 4)
+                createMetadataTable(db);
+
+            // Version 5 adds the archive table, which starts out empty.
+            if(oldVersion < 5)
+                createArchiveTable(db);
+
+            // Version 6 adds the tables of the metrics other than the screen wakes. They start out
+            // empty and are lined up with the wakes by ScreenCountDatabase when it is opened.
+            if(oldVersion < 6)
+                createMetricTables(db);
+        }
+    }
+
+    /**
+     * Gives the name of the table of a CountMetric.
+     *
+     * @param metric The metric the table keeps.
+     * @param table The name of the table of the screen wakes for the same TimeInterval.
+     * @return The name of the table.
+     */
+    public static String getTableName(CountMetric metric, String table) {
+        return METRIC_PREFIXES[metric.ordinal()] + table;
+    }
+
+    /**
+     * Gives the length of a single bucket in the table in milliseconds.
+     *
+     * @param table The name of the table.
+     * @return The length of one bucket in the table.
+     */
+    public static long getBucketMillis(String table) {
+        long day = ScreenCountDatabase.DAY_TO_HOUR * ScreenCountDatabase.HOUR_MILLIS;
+
+        if(table.endsWith(TABLE_HOUR_NAME))
+            return ScreenCountDatabase.HOUR_MILLIS;
+        else if(table.endsWith(TABLE_DAY_NAME))
+            return day;
+        else if(table.endsWith(TABLE_WEEK_NAME))
+            return ScreenCountDatabase.WEEK_TO_DAY * day;
+
+        return ScreenCountDatabase.MONTH_TO_DAY * day;
+    }
+
+    /**
+     * Creates the table with the given name along with the index that covers lookups by position.
+     *
+     * @param db The database to create the table in.
+     * @param table The name of the table.
+     */
+    private void createTable(SQLiteDatabase db, String table) {
+        db.execSQL("CREATE TABLE " + table + "("
+                + COLUMN_START + " integer primary key, "
+                + COLUMN_SEQ + " integer not null, "
+                + COLUMN_COUNT + " integer not null, "
+                + COLUMN_CUMULATIVE + " integer not null);");
+
+        db.execSQL("CREATE UNIQUE INDEX " + table + "_" + COLUMN_SEQ + " ON " + table + "("
+                + COLUMN_SEQ + ", " + COLUMN_CUMULATIVE + ", " + COLUMN_COUNT + ");");
+    }
+
+    /**
+     * Creates the metadata table and fills in a row for each count table from what is currently in
+     * the count table.
+     *
+     * @param db The database to create the table in.
+     */
+    private void createMetadataTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_METADATA_NAME + "("
+                + COLUMN_NAME + " text primary key, "
+                + COLUMN_SIZE + " integer not null, "
+                + COLUMN_LAST_START + " integer not null);");
+
+        for(String table : TABLES) {
+            db.execSQL("INSERT INTO " + TABLE_METADATA_NAME + " SELECT '" + table + "', COUNT(*), "
+                    + "IFNULL(MAX(" + COLUMN_START + "), 0) FROM " + table);
+        }
+    }
+
+    /**
+     * Creates the tables of every CountMetric other than the screen wakes, along with their rows in
+     * the metadata table.
+     *
+     * @param db The database to create the tables in.
+     */
+    private void createMetricTables(SQLiteDatabase db) {
+        for(CountMetric metric : CountMetric.values()) {
+            if(metric == CountMetric.Wakes)
+                continue;
+
+            for(String table : TABLES) {
+                String name = getTableName(metric, table);
+                createTable(db, name);
+                db.execSQL("INSERT INTO " + TABLE_METADATA_NAME + " VALUES ('" + name + "', 0, 0)");
+            }
+        }
+    }
+
+    /**
+     * Creates the archive table for the compressed blocks of the count tables.
+     *
+     * @param db The database to create the table in.
+     */
+    private void createArchiveTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_ARCHIVE_NAME + "("
+                + COLUMN_NAME + " text not null, "
+                + COLUMN_BLOCK + " integer not null, "
+                + COLUMN_CUMULATIVE + " integer not null, "
+                + COLUMN_SUM + " integer not null, "
+                + COLUMN_STARTS + " blob not null, "
+                + COLUMN_COUNTS + " blob not null, "
+                + "PRIMARY KEY (" + COLUMN_NAME + ", " + COLUMN_BLOCK + "));");
+    }
+
+    /**
+     * Moves the next batch of rows of the legacy tables into the current tables, if there are any
+     * left. The tables are moved one after the other. If the app was closed while a migration was
+     * running, it picks up from where it was left off.
+     *
+     * @param db The database to migrate.
+     * @return True if a batch was moved, false if there was nothing left to migrate.
+     */
+    public boolean migrateLegacyBatch(SQLiteDatabase db) {
+        for(String table : TABLES) {
+            String legacy = LEGACY_PREFIX + table;
+            long exists = DatabaseUtils.queryNumEntries(db, "sqlite_master", "type = 'table' AND name = ?",
+                    new String[] { legacy });
+
+            if(exists > 0) {
+                migrateLegacyBatch(db, table, legacy);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Copies the first rows left in the legacy table into the table, in order. The batch is its own
+     * transaction which also deletes the copied rows from the legacy table and updates the metadata
+     * for the table, so the table always holds the oldest rows whole and the migration can always
+     * carry on from the first row left in the legacy table. The legacy table is dropped once it is
+     * empty.
+     *
+     * The legacy rows have no start times, so they are given back to back start times such that the
+     * last row ends at the time the migration of the table started.
+     *
+     * @param db The database to migrate.
+     * @param table The name of the table to copy the rows into.
+     * @param legacy The name of the legacy table to copy the rows from.
+     */
+    private void migrateLegacyBatch(SQLiteDatabase db, String table, String legacy) {
+        long bucketMillis = getBucketMillis(table);
+
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + table + " ("
+                + COLUMN_START + ", " + COLUMN_SEQ + ", " + COLUMN_COUNT + ", " + COLUMN_CUMULATIVE
+                + ") VALUES (?, ?, ?, ?)");
+        SQLiteStatement metadata = db.compileStatement("UPDATE " + TABLE_METADATA_NAME + " SET "
+                + COLUMN_SIZE + " = ?, " + COLUMN_LAST_START + " = ? WHERE " + COLUMN_NAME + " = ?");
+
+        db.beginTransactionNonExclusive();
+        try {
+            long start;
+            long seq = 0;
+            long cumulative = 0;
+
+            // Carry on from the last row that was already moved if there is one.
+            Cursor last = db.query(table,
+                    new String[] { COLUMN_START, COLUMN_SEQ, COLUMN_CUMULATIVE },
+                    null, null, null, null, COLUMN_SEQ + " DESC", "1");
+            if(last.moveToFirst()) {
+                start = last.getLong(0) + bucketMillis;
+                seq = last.getLong(1);
+                cumulative = last.getLong(2);
+            } else {
+                long remaining = DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + legacy,
+                        null);
+                start = System.currentTimeMillis() - remaining * bucketMillis;
+            }
+            last.close();
+
+            Cursor rows = db.query(legacy, new String[] { LEGACY_COLUMN_ID, COLUMN_COUNT },
+                    null, null, null, null, LEGACY_COLUMN_ID,
+                    Integer.toString(MIGRATION_BATCH_SIZE));
+
+            long lastId = 0;
+            rows.moveToFirst();
+            while(!rows.isAfterLast()) {
+                long count = rows.getLong(1);
+                seq++;
+                cumulative += count;
+
+                insert.bindLong(1, start);
+                insert.bindLong(2, seq);
+                insert.bindLong(3, count);
+                insert.bindLong(4, cumulative);
+                insert.executeInsert();
+
+                start += bucketMillis;
+                lastId = rows.getLong(0);
+                rows.moveToNext();
+            }
+
+            boolean finished = rows.getCount() < MIGRATION_BATCH_SIZE;
+            rows.close();
+
+            db.delete(legacy, LEGACY_COLUMN_ID + " <= " + lastId, null);
+
+            if(seq > 0) {
+                metadata.bindLong(1, seq);
+                metadata.bindLong(2, start - bucketMillis);
+                metadata.bindString(3, table);
+                metadata.executeUpdateDelete();
+            }
+
+            if(finished)
+                db.execSQL("DROP TABLE " + legacy);
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
 
-        onCreate(db);
+            insert.close();
+            metadata.close();
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,139 @@
+package models;
+
+import utils.DataUtils;
+
+/**
+ * @author Matias Grioni
+ * @created 1/25/16
+ *
+ * What a TimeCard shows. Each is made from one or two CountMetrics, its sources, entry by entry.
+ * ScreenOn is the screen on time in minutes, SessionLength the average time in seconds the screen
+ * stayed on each time it was turned on, and UnlockRate the percent of the screen wakes that were
+ * unlocked.
+ *
+ * The sources of a card should have the same amount of entries, but a metric that is not lined up
+ * with the screen wakes yet can have fewer. The entries of the sources are matched from the last
+ * one, which is always the current entry, and the missing leading entries of a shorter source are
+ * taken to be 0.
+ */
+public enum CardMetric {
+    Wakes("Screen wakes", "", CountMetric.Wakes),
+    ScreenOn("Screen on time", " min", CountMetric.ScreenOn),
+    SessionLength("Session length", " s", CountMetric.ScreenOn, CountMetric.Sessions),
+    UnlockRate("Unlock rate", "%", CountMetric.Unlocks, CountMetric.Wakes);
+
+    public final String label;
+    public final String unit;
+    private final CountMetric[] sources;
+
+    CardMetric(String label, String unit, CountMetric... sources) {
+        this.label = label;
+        this.unit = unit;
+        this.sources = sources;
+    }
+
+    /**
+     * @return The CountMetrics this is made from, in the order getEntries takes them.
+     */
+    public CountMetric[] getSources() {
+        return sources.clone();
+    }
+
+    /**
+     * @param metric The CountMetric to look for.
+     * @return The position of the metric in the sources, or -1 if this is not made from it.
+     */
+    public int getSourceIndex(CountMetric metric) {
+        for(int i = 0; i < sources.length; i++) {
+            if(sources[i] == metric)
+                return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Makes the entries of a card out of the entries of its sources, in one new array.
+     *
+     * @param values The entries of each source in the order of getSources, whose last entry leaves
+     *               out the current hour.
+     * @param hourValues The value of each source so far in the current hour, which is added to its
+     *                   last entry.
+     * @return The entries to show.
+     */
+    public IntSeries getEntries(IntSeries[] values, int[] hourValues) {
+        int size = values[0].size();
+        if(sources.length > 1)
+            size = Math.max(size, values[1].size());
+
+        int[] entries = new int[size];
+        for(int i = 0; i < size; i++) {
+            int fromEnd = size - 1 - i;
+            entries[i] = combine(get(values[0], hourValues[0], fromEnd),
+                    sources.length > 1 ? get(values[1], hourValues[1], fromEnd) : 0);
+        }
+
+        return new IntSeries(entries);
+    }
+
+    /**
+     * Makes only the last entry of a card, which has the current hour, out of the entries of its
+     * sources.
+     *
+     * @param values The entries of each source in the order of getSources, whose last entry leaves
+     *               out the current hour.
+     * @param hourValues The value of each source so far in the current hour.
+     * @return The last entry to show.
+     */
+    public int getLastEntry(IntSeries[] values, int[] hourValues) {
+        return combine(get(values[0], hourValues[0], 0),
+                sources.length > 1 ? get(values[1], hourValues[1], 0) : 0);
+    }
+
+    /**
+     * Makes the total of a card out of the entries of its sources. For the rates this is the rate
+     * over the whole window rather than the sum of the rates of the entries.
+     *
+     * @param values The entries of each source in the order of getSources, whose last entry leaves
+     *               out the current hour.
+     * @param hourValues The value of each source so far in the current hour.
+     * @return The total to show.
+     */
+    public int getTotal(IntSeries[] values, int[] hourValues) {
+        return combine(DataUtils.sum(values[0]) + hourValues[0],
+                sources.length > 1 ? DataUtils.sum(values[1]) + hourValues[1] : 0);
+    }
+
+    /**
+     * @param series The entries of a source.
+     * @param hourValue The value of the source in the current hour.
+     * @param fromEnd How many entries before the last one to get.
+     * @return The entry, with the current hour if it is the last, or 0 if the series does not go
+     *         back that far.
+     */
+    private static int get(IntSeries series, int hourValue, int fromEnd) {
+        int index = series.size() - 1 - fromEnd;
+        if(index < 0)
+            return 0;
+
+        return series.get(index) + (fromEnd == 0 ? hourValue : 0);
+    }
+
+    /**
+     * @param value The value of the first source.
+     * @param other The value of the second source, or 0 if there is none.
+     * @return The value to show.
+     */
+    private int combine(int value, int other) {
+        switch(this) {
+            case ScreenOn:
+                return value / 60;
+            case SessionLength:
+                return other == 0 ? 0 : value / other;
+            case UnlockRate:
+                return other == 0 ? 0 : (int) (100L * value / other);
+            default:
+                return value;
+        }
+    }
+}
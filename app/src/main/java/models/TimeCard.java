@@ -10,7 +10,8 @@ import android.os.Parcelable;
  * A TimeCard are the units in the app that detail what counts to keep track of.
  * A TimeCard has a TimeInterval and a count backwards that are combined such
  * that 5 weeks, 3 months, 9 hours, etc, are represented. There is also a flag
- * for if the card is collapsed in the TimeCardAdapter.
+ * for if the card is collapsed in the TimeCardAdapter, and the CardMetric the
+ * card shows, which is the screen wakes unless given.
  *
  * The cache member is so called because it is data (points and count) that is
  * inherent to the TimeCard but the TimeCard can exist without it being defined.
@@ -32,6 +33,7 @@ public class TimeCard implements Parcelable {
     public TimeInterval interval;
     public int backCount;
     public boolean collapsed;
+    public CardMetric metric;
 
     public static final Creator CREATOR = new Creator<TimeCard>() {
         public TimeCard createFromParcel(Parcel in) {
@@ -46,18 +48,32 @@ public class TimeCard implements Parcelable {
     /**
      * Explicit constructor for the TimeCard.
      *
+     * @param metric - What the card shows.
      * @param interval - The TimeInterval for this card.
      * @param backCount - The back count for the given TimeInterval.
      * @param collapsed - Flag if the card is collapsed or expanded when
      *                  visible in the TimeCardAdapter.
      */
-    public TimeCard(TimeInterval interval, int backCount, boolean collapsed) {
+    public TimeCard(CardMetric metric, TimeInterval interval, int backCount, boolean collapsed) {
         ID_SIZE++;
 
         this.id = ID_SIZE;
         this.interval = interval;
         this.backCount = backCount;
         this.collapsed = collapsed;
+        this.metric = metric;
+    }
+
+    /**
+     * Constructor for a card of the screen wakes.
+     *
+     * @param interval - The TimeInterval for this card.
+     * @param backCount - The back count for the given TimeInterval.
+     * @param collapsed - Flag if the card is collapsed or expanded when
+     *                  visible in the TimeCardAdapter.
+     */
+    public TimeCard(TimeInterval interval, int backCount, boolean collapsed) {
+        this(CardMetric.Wakes, interval, backCount, collapsed);
     }
 
     /**
@@ -66,7 +82,7 @@ public class TimeCard implements Parcelable {
      * @param card - The TimeCard to create this TimeCard from.
      */
     public TimeCard(TimeCard card) {
-        this(card.interval, card.backCount, card.collapsed);
+        this(card.metric, card.interval, card.backCount, card.collapsed);
     }
 
     /**
@@ -96,6 +112,7 @@ public class TimeCard implements Parcelable {
         interval = TimeInterval.valueOf(in.readString());
         backCount = in.readInt();
         collapsed = in.readInt() == 1;
+        metric = CardMetric.valueOf(in.readString());
     }
 
     @Override
@@ -114,7 +131,8 @@ public class TimeCard implements Parcelable {
 
         TimeCard card = (TimeCard) obj;
         return this.id == card.id && this.interval == card.interval &&
-                this.backCount == card.backCount && this.collapsed == card.collapsed;
+                this.backCount == card.backCount && this.collapsed == card.collapsed &&
+                this.metric == card.metric;
     }
 
     @Override
@@ -128,6 +146,7 @@ public class TimeCard implements Parcelable {
         dest.writeString(interval.name());
         dest.writeInt(backCount);
         dest.writeInt(collapsed ? 1 : 0);
+        dest.writeString(metric.name());
     }
 
     @Override
@@ -3,8 +3,7 @@ package models;
 import android.os.Parcel;
 import android.os.Parcelable;
 
-import java.util.ArrayList;
-import java.util.List;
+import utils.DataUtils;
 
 /**
  * @author Matias Grioni
@@ -13,10 +12,24 @@ import java.util.List;
  * A convenience class to not have to pass in the total and the actual data entries for each
  * TimeCard. Otherwise, either 2 parameters would have to passed in when the TimeCard data is needed
  * or the data would have to be summed.
+ *
+ * The entries are not copied when a cache is made from them or from another cache, since a card
+ * refresh should allocate almost nothing and the entries are usually only read. They may be shared
+ * with other caches, so they are copied the first time setHourValues changes them.
+ *
+ * A cache made from the finished entries of the sources of its CardMetric keeps them, so the current
+ * hour can be changed in place for every metric. A cache read from a Parcel does not.
  */
 public class TimeCardCache implements Parcelable {
     public int count;
-    public List<Integer> data;
+    public IntSeries data;
+
+    // Whether data is only held by this cache, so it can be changed in place.
+    private boolean owned;
+
+    // The metric of the card and the finished entries of its sources, which are only read.
+    private CardMetric metric;
+    private IntSeries[] values;
 
     public static final Parcelable.Creator<TimeCardCache> CREATOR = new Creator<TimeCardCache>() {
         @Override
@@ -32,30 +45,57 @@ public class TimeCardCache implements Parcelable {
 
     public TimeCardCache() {
         this.count = 0;
-        this.data = new ArrayList<>();
+        this.data = new IntSeries();
+        this.owned = true;
     }
 
     /**
-     * Constructor that takes in the data for the cache. Does not alias points.
+     * Constructor that takes in the data for the cache. Aliases the points until they are changed.
      *
      * @param data
      */
-    public TimeCardCache(List<Integer> data) {
-        this.data = new ArrayList<>(data);
+    public TimeCardCache(IntSeries data) {
+        this.data = data;
+        this.count = DataUtils.sum(data);
+    }
 
-        for (int i = 0; i < this.data.size(); i++) {
-            this.count += data.get(i);
-        }
+    /**
+     * Constructor for data whose count is not its sum, such as a rate. Aliases the points until
+     * they are changed.
+     *
+     * @param data - The entries of the card.
+     * @param count - The total of the card.
+     */
+    public TimeCardCache(IntSeries data, int count) {
+        this.data = data;
+        this.count = count;
     }
 
     /**
-     * Copy constructor for TimeCardCache.
+     * Constructor that makes the entries and count of a card from the finished entries of its
+     * sources and their values so far in the current hour. The finished entries are kept so the
+     * current hour can be changed later without querying them again.
+     *
+     * @param metric - The CardMetric of the card.
+     * @param values - The entries of each source in the order of getSources, whose last entry
+     *                 leaves out the current hour. They must not be changed.
+     * @param hourValues - The value of each source so far in the current hour.
+     */
+    public TimeCardCache(CardMetric metric, IntSeries[] values, int[] hourValues) {
+        this.data = metric.getEntries(values, hourValues);
+        this.count = metric.getTotal(values, hourValues);
+        this.owned = true;
+        this.metric = metric;
+        this.values = values;
+    }
+
+    /**
+     * Copy constructor for TimeCardCache. The points are shared until either cache changes them.
      *
      * @param cache - The TimeCardCache object to copy.
      */
     public TimeCardCache(TimeCardCache cache) {
-        this.count = cache.count;
-        this.data = new ArrayList<>(cache.data);
+        set(cache);
     }
 
     /**
@@ -64,12 +104,46 @@ public class TimeCardCache implements Parcelable {
      */
     public TimeCardCache(Parcel in) {
         count = in.readInt();
-        int[] dataArray = in.createIntArray();
+        data = new IntSeries(in.createIntArray());
+        owned = true;
+    }
+
+    /**
+     * Replaces the points and count with those of another cache. The points are shared until
+     * either cache changes them.
+     *
+     * @param cache - The TimeCardCache object to take the points and count of.
+     */
+    public void set(TimeCardCache cache) {
+        this.count = cache.count;
+        this.data = cache.data;
+        this.owned = false;
+        this.metric = cache.metric;
+        this.values = cache.values;
+    }
 
-        this.data = new ArrayList<>();
-        for(int i = 0; i < dataArray.length; i++) {
-            this.data.set(i, dataArray[i]);
+    /**
+     * Changes the current hour of the entries and the count without querying the database again.
+     * The current hour is always part of the last entry, so only the last entry and the count
+     * change.
+     *
+     * @param hourValues The value of each source of the metric so far in the current hour.
+     * @return False if this cache does not have the finished entries of its sources, so the card
+     *         has to be queried again.
+     */
+    public boolean setHourValues(int[] hourValues) {
+        if(metric == null)
+            return false;
+        if(data.size() == 0)
+            return true;
+
+        if(!owned) {
+            data = new IntSeries(data.toArray());
+            owned = true;
         }
+        data.set(data.size() - 1, metric.getLastEntry(values, hourValues));
+        count = metric.getTotal(values, hourValues);
+        return true;
     }
 
     public int describeContents() {
@@ -78,12 +152,6 @@ public class TimeCardCache implements Parcelable {
 
     public void writeToParcel(Parcel dest, int flags) {
         dest.writeInt(count);
-
-        int[] dataArray = new int[data.size()];
-        for (int i = 0; i < data.size(); i++) {
-            dataArray[i] = data.get(i);
-        }
-
-        dest.writeIntArray(dataArray);
+        dest.writeIntArray(data.toArray());
     }
 }
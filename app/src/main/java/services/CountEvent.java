@@ -0,0 +1,176 @@
+package services;
+
+/**
+ * @author Matias Grioni
+ * @created 1/24/16
+ *
+ * A change to the counts, as published on the CountEventBus. The event carries what changed, so a
+ * subscriber can apply a wake to what it shows without querying the database again, and only has
+ * to query once hours were written.
+ *
+ * Events that a slow subscriber has not been handed yet are merged into one, which is of the
+ * largest type of the two and carries the sum of their changes. The bus merges into and hands out
+ * events it reuses, so that publishing never allocates, and a subscriber must not keep or change an
+ * event after it was handed to it.
+ */
+public class CountEvent {
+    /**
+     * @author Matias Grioni
+     * @created 1/24/16
+     *
+     * What kind of change an event is, from the smallest to the largest.
+     */
+    public enum Type {
+        // Wakes were counted in the current hour.
+        WAKE,
+        // The screen was turned off or unlocked, which changes the other metrics of the current
+        // hour.
+        SESSION,
+        // The hours that ended were written and the current hour started over.
+        ROLLOVER,
+        // The whole history was replaced.
+        BACKFILL
+    }
+
+    public Type type;
+
+    // The wakes counted in the current hour.
+    public int wakes;
+
+    // The hours written to the database, the wakes in them, and when the first of them started, or
+    // 0 if no hours were written.
+    public int hours;
+    public int hourWakes;
+    public long firstStart;
+
+    // The count of the current hour once the change was made.
+    public int hourCount;
+
+    /**
+     * @param type What kind of change the event is.
+     * @param wakes The wakes counted in the current hour.
+     * @param hours The hours written to the database.
+     * @param hourWakes The wakes in the written hours.
+     * @param firstStart The wall clock time the first written hour started, or 0 for none.
+     * @param hourCount The count of the current hour after the change.
+     */
+    public CountEvent(Type type, int wakes, int hours, int hourWakes, long firstStart,
+                      int hourCount) {
+        this.type = type;
+        this.wakes = wakes;
+        this.hours = hours;
+        this.hourWakes = hourWakes;
+        this.firstStart = firstStart;
+        this.hourCount = hourCount;
+    }
+
+    /**
+     * Creates the event of the screen being turned off or unlocked, or of the current hour being
+     * recovered after the process died.
+     *
+     * @param wakes The wakes counted along with the change.
+     * @param hourCount The count of the current hour after the change.
+     * @return The event.
+     */
+    public static CountEvent session(int wakes, int hourCount) {
+        return new CountEvent(Type.SESSION, wakes, 0, 0, 0, hourCount);
+    }
+
+    /**
+     * Creates the event of finished hours being written.
+     *
+     * @param firstStart The wall clock time the first written hour started.
+     * @param hourCounts The count of each written hour.
+     * @param hourCount The count of the current hour after the write.
+     * @return The event.
+     */
+    public static CountEvent rollover(long firstStart, int[] hourCounts, int hourCount) {
+        return new CountEvent(Type.ROLLOVER, 0, hourCounts.length, sum(hourCounts), firstStart,
+                hourCount);
+    }
+
+    /**
+     * Creates the event of the whole history being replaced.
+     *
+     * @param firstStart The wall clock time the first loaded hour started.
+     * @param hourCounts The count of each loaded hour.
+     * @param hourCount The count of the current hour after the load.
+     * @return The event.
+     */
+    public static CountEvent backfill(long firstStart, int[] hourCounts, int hourCount) {
+        return new CountEvent(Type.BACKFILL, 0, hourCounts.length, sum(hourCounts), firstStart,
+                hourCount);
+    }
+
+    /**
+     * @return True if hours were written, so anything showing the finished hours has to query them
+     *         again.
+     */
+    public boolean writesHours() {
+        return type == Type.ROLLOVER || type == Type.BACKFILL;
+    }
+
+    /**
+     * Replaces this event with a copy of another.
+     *
+     * @param event The event to copy.
+     */
+    void set(CountEvent event) {
+        set(event.type, event.wakes, event.hours, event.hourWakes, event.firstStart,
+                event.hourCount);
+    }
+
+    /**
+     * Replaces this event with the given change.
+     *
+     * @param type What kind of change the event is.
+     * @param wakes The wakes counted in the current hour.
+     * @param hours The hours written to the database.
+     * @param hourWakes The wakes in the written hours.
+     * @param firstStart The wall clock time the first written hour started, or 0 for none.
+     * @param hourCount The count of the current hour after the change.
+     */
+    void set(Type type, int wakes, int hours, int hourWakes, long firstStart, int hourCount) {
+        this.type = type;
+        this.wakes = wakes;
+        this.hours = hours;
+        this.hourWakes = hourWakes;
+        this.firstStart = firstStart;
+        this.hourCount = hourCount;
+    }
+
+    /**
+     * Merges a change that came after this event into it in place, for a subscriber that was not
+     * handed this event yet.
+     *
+     * @param type What kind of change the later event is.
+     * @param wakes The wakes counted in the current hour.
+     * @param hours The hours written to the database.
+     * @param hourWakes The wakes in the written hours.
+     * @param firstStart The wall clock time the first written hour started, or 0 for none.
+     * @param hourCount The count of the current hour after the change.
+     */
+    void merge(Type type, int wakes, int hours, int hourWakes, long firstStart, int hourCount) {
+        if(type.ordinal() > this.type.ordinal())
+            this.type = type;
+        if(this.firstStart == 0)
+            this.firstStart = firstStart;
+
+        this.wakes += wakes;
+        this.hours += hours;
+        this.hourWakes += hourWakes;
+        this.hourCount = hourCount;
+    }
+
+    /**
+     * @param counts The counts to add up.
+     * @return The sum of the counts.
+     */
+    private static int sum(int[] counts) {
+        int sum = 0;
+        for(int count : counts)
+            sum += count;
+
+        return sum;
+    }
+}
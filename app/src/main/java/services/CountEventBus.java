@@ -0,0 +1,187 @@
+package services;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Matias Grioni
+ * @created 1/24/16
+ *
+ * Hands every change to the counts to any amount of subscribers, such as the notification and the
+ * cards, so they all react to the one event instead of each being wired to a service. Events can
+ * be published from any thread. Each subscriber is handed events on the main thread, on the
+ * background thread of the bus, or on a Handler of its own.
+ *
+ * A subscriber is never more than one event behind. Events published while the last one is still
+ * waiting to be handed to a subscriber are merged into it, so a slow subscriber gets one event with
+ * every change instead of a backlog. Each subscriber has the event it waits on and the event it is
+ * handed kept for it and reused, so publishing a change allocates nothing, since a wake is
+ * published on every screen wake. The event handed to a subscriber is only valid until its
+ * listener returns.
+ */
+public class CountEventBus {
+    /**
+     * @author Matias Grioni
+     * @created 1/24/16
+     *
+     * Receives the count changes on the thread it was subscribed with.
+     */
+    public interface Listener {
+        void onCountEvent(CountEvent event);
+    }
+
+    /**
+     * A subscriber along with the change waiting to be handed to it.
+     */
+    private static class Subscription implements Runnable {
+        private final Listener listener;
+        private final Handler handler;
+
+        // The changes waiting to be handed over, merged together, and the event they are copied to
+        // and handed over in. Only the handler's thread touches the handed event.
+        private final CountEvent pending = new CountEvent(CountEvent.Type.WAKE, 0, 0, 0, 0, 0);
+        private final CountEvent handed = new CountEvent(CountEvent.Type.WAKE, 0, 0, 0, 0, 0);
+        private boolean waiting;
+        private volatile boolean active = true;
+
+        private Subscription(Listener listener, Handler handler) {
+            this.listener = listener;
+            this.handler = handler;
+        }
+
+        @Override
+        public void run() {
+            synchronized(this) {
+                if(!waiting)
+                    return;
+
+                handed.set(pending);
+                waiting = false;
+            }
+
+            if(active)
+                listener.onCountEvent(handed);
+        }
+
+        /**
+         * Merges the change with the waiting one, or posts it if none is waiting.
+         *
+         * @param type What kind of change it is.
+         * @param wakes The wakes counted in the current hour.
+         * @param hours The hours written to the database.
+         * @param hourWakes The wakes in the written hours.
+         * @param firstStart The wall clock time the first written hour started, or 0 for none.
+         * @param hourCount The count of the current hour after the change.
+         */
+        private void offer(CountEvent.Type type, int wakes, int hours, int hourWakes,
+                           long firstStart, int hourCount) {
+            synchronized(this) {
+                if(waiting) {
+                    pending.merge(type, wakes, hours, hourWakes, firstStart, hourCount);
+                    return;
+                }
+
+                pending.set(type, wakes, hours, hourWakes, firstStart, hourCount);
+                waiting = true;
+            }
+
+            handler.post(this);
+        }
+    }
+
+    // Replaced as a whole when a subscriber is added or removed, so publishing only reads it.
+    private volatile Subscription[] subscriptions = new Subscription[0];
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private Handler backgroundHandler;
+
+    /**
+     * Hands the count changes to the listener on the main thread.
+     *
+     * @param listener The listener to subscribe.
+     */
+    public void subscribe(Listener listener) {
+        subscribe(listener, mainHandler);
+    }
+
+    /**
+     * Hands the count changes to the listener on the background thread of the bus, which all
+     * background subscribers share.
+     *
+     * @param listener The listener to subscribe.
+     */
+    public void subscribeInBackground(Listener listener) {
+        subscribe(listener, getBackgroundHandler());
+    }
+
+    /**
+     * Hands the count changes to the listener on the thread of the handler.
+     *
+     * @param listener The listener to subscribe.
+     * @param handler The handler to run the listener on.
+     */
+    public synchronized void subscribe(Listener listener, Handler handler) {
+        Subscription[] added = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+        added[subscriptions.length] = new Subscription(listener, handler);
+
+        subscriptions = added;
+    }
+
+    /**
+     * Stops handing count changes to the listener, including any event still waiting for it.
+     *
+     * @param listener The listener to unsubscribe.
+     */
+    public synchronized void unsubscribe(Listener listener) {
+        List<Subscription> kept = new ArrayList<>();
+        for(Subscription subscription : subscriptions) {
+            if(subscription.listener == listener)
+                subscription.active = false;
+            else
+                kept.add(subscription);
+        }
+
+        subscriptions = kept.toArray(new Subscription[kept.size()]);
+    }
+
+    /**
+     * Hands the event to every subscriber. The event is copied, so the caller may reuse it.
+     *
+     * @param event The count change.
+     */
+    public void publish(CountEvent event) {
+        for(Subscription subscription : subscriptions)
+            subscription.offer(event.type, event.wakes, event.hours, event.hourWakes,
+                    event.firstStart, event.hourCount);
+    }
+
+    /**
+     * Hands a change that wrote no hours to every subscriber without making an event for it, such
+     * as a wake.
+     *
+     * @param type What kind of change it is.
+     * @param wakes The wakes counted in the current hour.
+     * @param hourCount The count of the current hour after the change.
+     */
+    public void publish(CountEvent.Type type, int wakes, int hourCount) {
+        for(Subscription subscription : subscriptions)
+            subscription.offer(type, wakes, 0, 0, 0, hourCount);
+    }
+
+    /**
+     * @return The handler of the background thread, which is started the first time it is needed.
+     */
+    private synchronized Handler getBackgroundHandler() {
+        if(backgroundHandler == null) {
+            HandlerThread thread = new HandlerThread("CountEventBus");
+            thread.start();
+            backgroundHandler = new Handler(thread.getLooper());
+        }
+
+        return backgroundHandler;
+    }
+}
@@ -0,0 +1,490 @@
+package services;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import com.grioni.app.screenwakecounter.InstanceApplication;
+import com.grioni.app.screenwakecounter.ScreenCountDatabase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.TimeZone;
+
+import models.CountMetric;
+import stores.WakeLog;
+import utils.WorkloadGenerator;
+
+/**
+ * @author Matias Grioni
+ * @created 1/21/16
+ *
+ * The one thread that writes the counts. The writing of finished hours and loading a history are
+ * posted to it in order, so no two of them ever run at once and none of them run on the main
+ * thread. Screen wakes only bump a WakeCounter, which the rollover atomically takes the count of
+ * the finished hour from. This class uses a singleton instance.
+ *
+ * The hours are those of the wall clock. A rollover writes every hour that has ended since the last
+ * one, so hours missed while the device slept or was off are written together in one transaction,
+ * split up by the times in the wake log. The current hour count and when the hour started can be
+ * read from any thread without waiting on the writer.
+ *
+ * Every wake is also put in a WakeLog with its time, which the writer flushes in batches and marks
+ * the end of every written hour in. When the process starts again after dying, the wakes of the
+ * unfinished hour are recovered from the log.
+ *
+ * The screen being turned off and unlocked go through the same path, into a WakeCounter of their
+ * CountMetric and the log. A session runs from a wake to the next screen off, and its time is
+ * added to the screen on time as it ends, so the total is never computed by going over the events
+ * again. A session that is still going on when an hour ends has its time up to then given to that
+ * hour and the rest to the next.
+ *
+ * Every change is published on the CountEventBus once it is made.
+ */
+public class CountWriter {
+    private static final String TAG = "CountWriter";
+
+    // The log is flushed after 64 entries or 5 minutes, whichever comes first, and keeps 30 days of
+    // entries. It is trimmed at most once a day.
+    private static final int LOG_CAPACITY = 1024;
+    private static final int LOG_BATCH_SIZE = 64;
+    private static final long LOG_FLUSH_INTERVAL = 5 * 60 * 1000;
+    private static final long LOG_RETENTION = 30L * 24 * 60 * 60 * 1000;
+    private static final long LOG_TRIM_INTERVAL = 24 * 60 * 60 * 1000;
+
+    private static CountWriter instance;
+
+    // The current hour of each CountMetric, indexed by the CountMetric ordinal. The screen on time
+    // is in milliseconds, and only has the sessions that ended in the current hour.
+    private static final WakeCounter[] counters = newCounters();
+    private static final WakeCounter wakes = counters[CountMetric.Wakes.ordinal()];
+    private static volatile long hourStart = getHourStart(System.currentTimeMillis());
+
+    // When the screen was turned on, or 0 while it is off. The time of the session before the start
+    // of the current hour was given to the hours before it. The lock is held whenever this or the
+    // hour start changes, so a session is never split up between the hours twice. It is also held
+    // while an entry is counted and put in the log, so the rollover knows which of the logged
+    // entries it took the count of.
+    private static final Object sessionLock = new Object();
+    private static long onSince;
+
+    private ScreenCountDatabase countDatabase;
+    private CountEventBus eventBus;
+    private Handler writer;
+
+    private WakeLog wakeLog;
+    private long lastTrim;
+
+    private Runnable flushLog = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                wakeLog.flush();
+            } catch(IOException ex) {
+                Log.e(TAG, "Unable to flush the wake log", ex);
+            }
+        }
+    };
+
+    /**
+     * Create a new instance or get the already created instance for CountWriter.
+     *
+     * @param context The Context to get the ScreenCountDatabase and CountEventBus from.
+     * @return The CountWriter instance.
+     */
+    public static synchronized CountWriter getInstance(Context context) {
+        if(instance == null)
+            instance = new CountWriter(context);
+
+        return instance;
+    }
+
+    /**
+     * @return The screen wakes so far in the current hour.
+     */
+    public static int getHourCount() {
+        return wakes.get();
+    }
+
+    /**
+     * Gives the value of a CountMetric so far in the current hour. The screen on time is in seconds
+     * and has the session that is still going on up to now.
+     *
+     * @param metric The CountMetric to get the value of.
+     * @return The value of the metric in the current hour.
+     */
+    public static int getHourValue(CountMetric metric) {
+        if(metric != CountMetric.ScreenOn)
+            return counters[metric.ordinal()].get();
+
+        synchronized(sessionLock) {
+            long millis = counters[metric.ordinal()].get() + getOpenTime(System.currentTimeMillis());
+            return (int) (millis / 1000);
+        }
+    }
+
+    /**
+     * @return The wall clock time in milliseconds at which the current hour started.
+     */
+    public static long getHourStart() {
+        return hourStart;
+    }
+
+    /**
+     * Gives the start of the wall clock hour in the default time zone that a time falls in.
+     *
+     * @param time The wall clock time in milliseconds.
+     * @return The wall clock time in milliseconds at which its hour started.
+     */
+    public static long getHourStart(long time) {
+        long hourMillis = ScreenCountDatabase.HOUR_MILLIS;
+        long offset = TimeZone.getDefault().getOffset(time);
+
+        return (time + offset) / hourMillis * hourMillis - offset;
+    }
+
+    /**
+     * Starts the writer thread. To access the global instance use the getInstance method.
+     *
+     * @param context The Context to get the ScreenCountDatabase and CountEventBus from.
+     */
+    private CountWriter(Context context) {
+        InstanceApplication application = (InstanceApplication) context.getApplicationContext();
+        countDatabase = application.getCountDatabase();
+        eventBus = application.getEventBus();
+
+        wakeLog = new WakeLog(new File(context.getFilesDir(), "wakes.log"), LOG_CAPACITY,
+                LOG_BATCH_SIZE, LOG_FLUSH_INTERVAL);
+
+        HandlerThread thread = new HandlerThread("CountWriter");
+        thread.start();
+        writer = new Handler(thread.getLooper());
+
+        writer.post(new Runnable() {
+            @Override
+            public void run() {
+                align();
+                recover();
+            }
+        });
+    }
+
+    /**
+     * Counts a screen wake in the current hour right away on the calling thread, and starts a
+     * session. A wake during a session means its screen off was missed, so it starts over.
+     */
+    public void wake() {
+        long now = System.currentTimeMillis();
+
+        synchronized(sessionLock) {
+            wakes.increment();
+            onSince = now;
+            append(now, WakeLog.WAKE);
+        }
+
+        eventBus.publish(CountEvent.Type.WAKE, 1, wakes.get());
+    }
+
+    /**
+     * Ends the session on the calling thread, adding its time since the start of the current hour
+     * to the screen on time.
+     */
+    public void screenOff() {
+        long now = System.currentTimeMillis();
+
+        synchronized(sessionLock) {
+            if(onSince == 0)
+                return;
+
+            counters[CountMetric.ScreenOn.ordinal()].add((int) getOpenTime(now));
+            counters[CountMetric.Sessions.ordinal()].increment();
+            onSince = 0;
+            append(now, WakeLog.SCREEN_OFF);
+        }
+
+        eventBus.publish(CountEvent.Type.SESSION, 0, wakes.get());
+    }
+
+    /**
+     * Counts an unlock in the current hour right away on the calling thread.
+     */
+    public void unlock() {
+        synchronized(sessionLock) {
+            counters[CountMetric.Unlocks.ordinal()].increment();
+            append(System.currentTimeMillis(), WakeLog.UNLOCK);
+        }
+
+        eventBus.publish(CountEvent.Type.SESSION, 0, wakes.get());
+    }
+
+    /**
+     * Sets whether the screen is on without counting a wake, such as when the service starts while
+     * it already is. A session started this way is not in the log, so it is only counted live.
+     *
+     * @param on True if the screen is on.
+     */
+    public void setScreenOn(boolean on) {
+        synchronized(sessionLock) {
+            if(!on)
+                onSince = 0;
+            else if(onSince == 0)
+                onSince = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Writes every hour that has ended since the last rollover to the database and starts the
+     * current one.
+     */
+    public void rollover() {
+        writer.post(new Runnable() {
+            @Override
+            public void run() {
+                rollover(System.currentTimeMillis());
+            }
+        });
+    }
+
+    /**
+     * Replaces the whole history with hours made up by a WorkloadGenerator, as
+     * ScreenCountDatabase#load does. The hours are made up on the writer thread and end where the
+     * current hour starts, so the last of them never overlaps the hour that is still counted. What
+     * the wake log has from before the current hour is dropped, since it belongs to the history
+     * that was replaced.
+     *
+     * @param generator The generator to make up the count of each hour with.
+     * @param hours The amount of hours to load.
+     */
+    public void load(final WorkloadGenerator generator, final int hours) {
+        writer.post(new Runnable() {
+            @Override
+            public void run() {
+                long end = hourStart;
+                long firstStart = end - hours * ScreenCountDatabase.HOUR_MILLIS;
+                int[] hourCounts = generator.generate(firstStart, hours);
+
+                countDatabase.load(firstStart, hourCounts);
+                try {
+                    wakeLog.trim(end);
+                    wakeLog.flushHour(end);
+                } catch(IOException ex) {
+                    Log.e(TAG, "Unable to reset the wake log", ex);
+                }
+
+                eventBus.publish(CountEvent.backfill(firstStart, hourCounts, wakes.get()));
+            }
+        });
+    }
+
+    /**
+     * Finishes moving over the tables from before version 3, and then lines up the metrics that
+     * have no buckets yet with the screen wakes, which after an upgrade writes their whole history.
+     * Anything showing them has to query them again afterwards.
+     */
+    private void align() {
+        boolean migrated = countDatabase.migrateLegacyTables();
+        if(countDatabase.alignMetrics() || migrated)
+            eventBus.publish(new CountEvent(CountEvent.Type.BACKFILL, 0, 0, 0, 0, wakes.get()));
+    }
+
+    /**
+     * Opens the wake log and counts what it has from after the last written hour, which was lost if
+     * the process died. The hours that have ended since are written right away from the log, and
+     * only what was logged in the current hour is added to its counters. A session that was still
+     * going on when the process died has no end, so its time is left out.
+     *
+     * The hours are committed before their end is put in the log, so if the process died in
+     * between, the hours that were already written are skipped here rather than written twice.
+     */
+    private void recover() {
+        try {
+            wakeLog.open();
+
+            long boundary = wakeLog.getLastBoundary();
+            long current = hourStart;
+            if(boundary > 0 && boundary <= current) {
+                long hourMillis = ScreenCountDatabase.HOUR_MILLIS;
+                long start = getHourStart(boundary);
+
+                int hours = (int) ((current - start) / hourMillis);
+                int[][] recovered = wakeLog.replay(start, hourMillis, hours + 1, start);
+
+                // The hours up to the last one in the database were written before the process died.
+                long written = countDatabase.getLastHourStart();
+                int skipped = written < start ? 0
+                        : (int) Math.min(hours, (written - start) / hourMillis + 1);
+
+                int metrics = CountMetric.values().length;
+                int[][] finished = new int[metrics][];
+                boolean changed = false;
+                for(int m = 0; m < metrics; m++) {
+                    counters[m].add(recovered[m][hours]);
+                    changed |= recovered[m][hours] > 0;
+
+                    finished[m] = Arrays.copyOfRange(recovered[m], skipped, hours);
+                }
+
+                if(hours > skipped) {
+                    // The screen on time is counted in milliseconds but kept in seconds.
+                    int screenOn = CountMetric.ScreenOn.ordinal();
+                    for(int i = 0; i < hours - skipped; i++)
+                        finished[screenOn][i] /= 1000;
+
+                    long firstStart = start + skipped * hourMillis;
+                    countDatabase.addHours(firstStart, finished);
+                    eventBus.publish(CountEvent.rollover(firstStart,
+                            finished[CountMetric.Wakes.ordinal()], wakes.get()));
+                } else if(changed) {
+                    int recoveredWakes = recovered[CountMetric.Wakes.ordinal()][hours];
+                    eventBus.publish(CountEvent.session(recoveredWakes, wakes.get()));
+                }
+
+                if(hours > 0)
+                    wakeLog.flushHour(current);
+            }
+        } catch(IOException ex) {
+            Log.e(TAG, "Unable to open the wake log", ex);
+            return;
+        }
+
+        rollover(System.currentTimeMillis());
+    }
+
+    /**
+     * Writes the hours that ended by the given time. The usual case is the one hour that just
+     * ended, which gets everything counted so far, along with the time of a session that is still
+     * going on up to the end of the hour. When more hours ended, or anything was logged after the
+     * end of the hour because the rollover came late, each CountMetric is split between them and the
+     * current hour by the times in the wake log. Anything missing from the log goes to the last
+     * finished hour.
+     *
+     * @param now The current wall clock time in milliseconds.
+     */
+    private void rollover(long now) {
+        long hourMillis = ScreenCountDatabase.HOUR_MILLIS;
+        long end = getHourStart(now);
+        if(end <= hourStart)
+            return;
+
+        int metrics = CountMetric.values().length;
+        int screenOn = CountMetric.ScreenOn.ordinal();
+
+        int[] totals = new int[metrics];
+        long firstStart;
+        boolean sessionOpen;
+        long appended;
+        boolean late;
+        synchronized(sessionLock) {
+            for(int m = 0; m < metrics; m++)
+                totals[m] = counters[m].getAndReset();
+            totals[screenOn] += getOpenTime(end);
+
+            // Every entry logged up to here is in the totals, and every one after is in the new
+            // counters, so only the ones up to here are replayed.
+            appended = wakeLog.getAppended();
+            late = wakeLog.getLastTime() >= end;
+
+            sessionOpen = onSince != 0;
+            firstStart = hourStart;
+            hourStart = end;
+        }
+
+        int hours = (int) ((end - firstStart) / hourMillis);
+
+        // Until the log is read everything goes to the last finished hour.
+        int[][] counts = new int[metrics][hours];
+        for(int m = 0; m < metrics; m++)
+            counts[m][hours - 1] = totals[m];
+        try {
+            if(hours > 1 || late) {
+                wakeLog.flush();
+                int[][] buckets = wakeLog.replay(firstStart, hourMillis, hours + 1,
+                        sessionOpen ? end : firstStart, appended);
+
+                for(int m = 0; m < metrics; m++) {
+                    // The current hour is handed back to the counter.
+                    int current = Math.min(buckets[m][hours], totals[m]);
+                    counters[m].add(current);
+
+                    int[] logged = Arrays.copyOf(buckets[m], hours);
+                    logged[hours - 1] += Math.max(0, totals[m] - current - sum(logged));
+                    counts[m] = logged;
+                }
+            }
+        } catch(IOException ex) {
+            Log.e(TAG, "Unable to read the wake log", ex);
+        }
+
+        // The screen on time is counted in milliseconds but kept in seconds.
+        for(int i = 0; i < hours; i++)
+            counts[screenOn][i] /= 1000;
+
+        countDatabase.addHours(firstStart, counts);
+
+        // The end of the hours only goes in the log once they are committed, so recovery never
+        // takes hours that were not written for written ones.
+        try {
+            wakeLog.flushHour(end);
+            if(now - lastTrim >= LOG_TRIM_INTERVAL) {
+                wakeLog.trim(now - LOG_RETENTION);
+                lastTrim = now;
+            }
+        } catch(IOException ex) {
+            Log.e(TAG, "Unable to write the wake log", ex);
+        }
+
+        eventBus.publish(CountEvent.rollover(firstStart, counts[CountMetric.Wakes.ordinal()],
+                wakes.get()));
+    }
+
+    /**
+     * @return A WakeCounter for every CountMetric, indexed by the CountMetric ordinal.
+     */
+    private static WakeCounter[] newCounters() {
+        WakeCounter[] counters = new WakeCounter[CountMetric.values().length];
+        for(int m = 0; m < counters.length; m++)
+            counters[m] = new WakeCounter();
+
+        return counters;
+    }
+
+    /**
+     * @param counts The counts to add up.
+     * @return The sum of the counts.
+     */
+    private static int sum(int[] counts) {
+        int sum = 0;
+        for(int count : counts)
+            sum += count;
+
+        return sum;
+    }
+
+    /**
+     * Gives the time of the session that is still going on since the start of the current hour.
+     * Must be called holding the session lock.
+     *
+     * @param now The wall clock time in milliseconds to count the session up to.
+     * @return The time in milliseconds, or 0 if the screen is off.
+     */
+    private static long getOpenTime(long now) {
+        if(onSince == 0)
+            return 0;
+
+        return Math.max(0, now - Math.max(onSince, hourStart));
+    }
+
+    /**
+     * Puts an entry in the wake log and has the writer flush it if it is due. Must be called
+     * holding the session lock.
+     *
+     * @param time The wall clock time of the entry in milliseconds.
+     * @param kind The kind of the entry in the WakeLog.
+     */
+    private void append(long time, int kind) {
+        if(wakeLog.append(time, kind))
+            writer.post(flushLog);
+    }
+}
@@ -1,7 +1,5 @@
 package services;
 
-import android.app.AlarmManager;
-import android.app.PendingIntent;
 import android.app.Service;
 import android.content.BroadcastReceiver;
 import android.content.Intent;
@@ -9,13 +7,15 @@ import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.os.Binder;
 import android.os.IBinder;
-import android.os.SystemClock;
+import android.os.PowerManager;
 import android.preference.PreferenceManager;
 import android.support.v4.app.NotificationManagerCompat;
 
+import com.grioni.app.screenwakecounter.InstanceApplication;
 import com.grioni.app.screenwakecounter.ScreenCountNotificationManager;
 import com.grioni.app.screenwakecounter.ScreenWakeReceiver;
 
+import models.CountMetric;
 import models.TimeInterval;
 
 /**
@@ -24,6 +24,9 @@ import models.TimeInterval;
  *
  * The continually running foreground service that keeps track of the current wakes in the hour. At
  * the end of this hour, the ScreenWriteService is called to add the finished hour to the database.
+ * The count itself is kept by the CountWriter, which every wake is handed to. Anything that shows
+ * the count subscribes to the CountEventBus instead of to this service. The screen being turned off
+ * and unlocked are handed to the CountWriter the same way, for the screen on time and unlocks.
  */
 public class ScreenCountService extends Service {
     /**
@@ -39,26 +42,30 @@ public class ScreenCountService extends Service {
         }
     }
 
-    private static final int SECONDS_TO_ALARM = 30;
     private static final int NOTIF_ID = 1337;
 
     private BroadcastReceiver wakeReceiver;
     private ScreenCountBinder countBinder = new ScreenCountBinder();
 
-    private ServiceUpdateListener updateListener;
-
-    private static int screenChangeCount;
-    private static long lastAlarmTime;
+    private CountWriter countWriter;
 
     @Override
     public void onCreate() {
         super.onCreate();
+        countWriter = ((InstanceApplication) getApplication()).getCountWriter();
 
-        // IntentFilter for the actions of turning the screen on.
+        // IntentFilter for the actions of turning the screen on and off, and unlocking it.
         IntentFilter wakeFilter = new IntentFilter();
         wakeFilter.addAction(Intent.ACTION_SCREEN_ON);
+        wakeFilter.addAction(Intent.ACTION_SCREEN_OFF);
+        wakeFilter.addAction(Intent.ACTION_USER_PRESENT);
+
+        // The screen may already be on when the service starts, and its session is counted from
+        // now.
+        PowerManager powerManager = (PowerManager) getSystemService(POWER_SERVICE);
+        countWriter.setScreenOn(powerManager.isScreenOn());
 
-        wakeReceiver = new ScreenWakeReceiver();
+        wakeReceiver = new ScreenWakeReceiver(this);
         registerReceiver(wakeReceiver, wakeFilter);
 
         startNotification();
@@ -67,11 +74,10 @@ public class ScreenCountService extends Service {
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        screenChangeCount++;
-        if (updateListener != null)
-            updateListener.onUpdate();
-
-        ScreenCountNotificationManager.refreshCount();
+        // Only started by the ScreenWakeReceiver once the device is turned on, which counts as a
+        // wake. A restart of the sticky service has no intent and is not a wake.
+        if(intent != null)
+            onScreenWake();
 
         return START_STICKY;
     }
@@ -88,23 +94,34 @@ public class ScreenCountService extends Service {
     }
 
     /**
-     * If a callback should be run every time the screen is woken set the callback. Allows for the
-     * Acvitity/Fragment that the Service is bound to communicate together.
-     *
-     * @param updateListener - The listener to use.
+     * Counts a screen wake. Called by the registered ScreenWakeReceiver in the same process.
+     */
+    public void onScreenWake() {
+        countWriter.wake();
+    }
+
+    /**
+     * Ends the current session. Called by the registered ScreenWakeReceiver in the same process.
      */
-    public void setUpdateListener(ServiceUpdateListener updateListener) {
-        this.updateListener = updateListener;
+    public void onScreenOff() {
+        countWriter.screenOff();
     }
 
     /**
-     * Get the last time the database was written to. The number returned is in the format of
-     * SystemClock#elapsedRealtime().
+     * Counts an unlock. Called by the registered ScreenWakeReceiver in the same process.
+     */
+    public void onUnlock() {
+        countWriter.unlock();
+    }
+
+    /**
+     * Get the start of the current hour, which the last write to the database ended. The number
+     * returned is a wall clock time.
      *
-     * @return - The elapsed real time figure of the last write time to the database.
+     * @return - The wall clock time in milliseconds at which the current hour started.
      */
-    public static long getLastAlarmTime() {
-       return lastAlarmTime;
+    public static long getHourStart() {
+       return CountWriter.getHourStart();
     }
 
     /**
@@ -113,16 +130,17 @@ public class ScreenCountService extends Service {
      * @return - The screen wakes in the last hour.
      */
     public static int getHourCount() {
-        return screenChangeCount;
+        return CountWriter.getHourCount();
     }
 
     /**
-     * Sets the screen wakes for the last hour to 0 and sets the last write time to the database to
-     * the current time.
+     * Gets the value of a CountMetric in the current hour.
+     *
+     * @param metric - The CountMetric to get the value of.
+     * @return - The value of the metric in the current hour, with the screen on time in seconds.
      */
-    public static void reset() {
-        screenChangeCount = 0;
-        lastAlarmTime = SystemClock.elapsedRealtime();
+    public static int getHourValue(CountMetric metric) {
+        return CountWriter.getHourValue(metric);
     }
 
     /**
@@ -145,14 +163,10 @@ public class ScreenCountService extends Service {
     }
 
     /**
-     *
+     * Sets the alarm for the end of the current hour. This also replaces the repeating alarm that
+     * older versions set.
      */
     private void setScreenCountWriteAlarm() {
-        Intent alarmIntent = new Intent(getBaseContext(), ScreenCountWriteService.class);
-        AlarmManager alarm = (AlarmManager) getSystemService(ALARM_SERVICE);
-        alarm.setRepeating(AlarmManager.ELAPSED_REALTIME_WAKEUP,
-                SystemClock.elapsedRealtime() + SECONDS_TO_ALARM * 1000, SECONDS_TO_ALARM * 1000,
-                PendingIntent.getService(getBaseContext(), 0, alarmIntent, 0));
-        lastAlarmTime = SystemClock.elapsedRealtime();
+        ScreenCountWriteService.schedule(getBaseContext());
     }
 }
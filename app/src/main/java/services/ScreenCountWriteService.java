@@ -1,13 +1,16 @@
 package services;
 
+import android.app.AlarmManager;
+import android.app.PendingIntent;
 import android.app.Service;
+import android.content.Context;
 import android.content.Intent;
 import android.os.Binder;
+import android.os.Build;
 import android.os.IBinder;
 
 import com.grioni.app.screenwakecounter.InstanceApplication;
 import com.grioni.app.screenwakecounter.ScreenCountDatabase;
-import com.grioni.app.screenwakecounter.ScreenCountNotificationManager;
 
 /**
  * Created by Matias Grioni on 12/21/14.
@@ -21,25 +24,21 @@ public class ScreenCountWriteService extends Service {
     }
 
     private ScreenCountWriteBinder binder = new ScreenCountWriteBinder();
-    private ServiceUpdateListener updateListener;
-    private ScreenCountDatabase countDatabase;
+    private CountWriter countWriter;
 
     @Override
     public void onCreate() {
         super.onCreate();
-        countDatabase = ((InstanceApplication) getApplication()).getCountDatabase();
+        countWriter = ((InstanceApplication) getApplication()).getCountWriter();
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        int hourCount = ScreenCountService.getHourCount();
-        countDatabase.addHour(hourCount);
-
-        ScreenCountService.reset();
-        ScreenCountNotificationManager.refreshCount();
-
-        if(updateListener != null)
-            updateListener.onUpdate();
+        // The hour is written and the count reset together on the writer thread, so no wake can
+        // land between them. If the alarm came late every hour it missed is written too. The
+        // written hours are published on the CountEventBus.
+        countWriter.rollover();
+        schedule(getBaseContext());
 
         return START_STICKY;
     }
@@ -50,10 +49,23 @@ public class ScreenCountWriteService extends Service {
     }
 
     /**
+     * Sets the one alarm that starts this service at the end of the current wall clock hour,
+     * replacing any alarm set before. The alarm only wakes the device once an hour.
      *
-     * @param updateListener
+     * @param context The context to set the alarm with.
      */
-    public void setUpdateListener(ServiceUpdateListener updateListener) {
-        this.updateListener = updateListener;
+    public static void schedule(Context context) {
+        long next = CountWriter.getHourStart(System.currentTimeMillis())
+                + ScreenCountDatabase.HOUR_MILLIS;
+
+        Intent alarmIntent = new Intent(context, ScreenCountWriteService.class);
+        PendingIntent pendingIntent = PendingIntent.getService(context, 0, alarmIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+
+        AlarmManager alarm = (AlarmManager) context.getSystemService(ALARM_SERVICE);
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+            alarm.setExact(AlarmManager.RTC_WAKEUP, next, pendingIntent);
+        else
+            alarm.set(AlarmManager.RTC_WAKEUP, next, pendingIntent);
     }
 }
@@ -0,0 +1,47 @@
+package services;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Matias Grioni
+ * @created 1/22/16
+ *
+ * A count of the current hour, such as its screen wakes. Wakes are added from whichever thread
+ * receives them and the count is handed off to the rollover with a single atomic swap, so a wake is
+ * never lost between reading the count and zeroing it. Nothing here locks or allocates.
+ */
+public class WakeCounter {
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * Counts one screen wake.
+     */
+    public void increment() {
+        count.incrementAndGet();
+    }
+
+    /**
+     * Counts screen wakes that were recovered from before the process started.
+     *
+     * @param wakes The amount of screen wakes.
+     */
+    public void add(int wakes) {
+        count.addAndGet(wakes);
+    }
+
+    /**
+     * @return The screen wakes counted since the last reset.
+     */
+    public int get() {
+        return count.get();
+    }
+
+    /**
+     * Zeroes the count and gives what it was, as one atomic step.
+     *
+     * @return The screen wakes counted since the last reset.
+     */
+    public int getAndReset() {
+        return count.getAndSet(0);
+    }
+}
@@ -0,0 +1,381 @@
+package stores;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.grioni.app.screenwakecounter.TimeCounterHelper;
+
+import java.util.Arrays;
+
+import models.IntervalAggregate;
+
+/**
+ * @author Matias Grioni
+ * @created 1/12/16
+ *
+ * A CountStore kept in one of the count tables of the database made by TimeCounterHelper. The size
+ * and last start time are read from the metadata table when the store is made, and the metadata
+ * row is updated along with every change. The statements are compiled once and reused. Each change
+ * is its own transaction so the row and metadata always agree, but it joins the caller's
+ * transaction if there is one, so a caller can still group changes to several stores into one
+ * commit.
+ *
+ * The oldest buckets can be compacted into CountBlocks in the archive table. The archived buckets
+ * keep their positions, so every read goes to the archive for the positions up to the last archived
+ * bucket and to the live rows for the rest. The running totals at the block boundaries are kept in
+ * memory, so a sum over the archive only has to decode the blocks at the ends of the range.
+ *
+ * A store that only reads does not compile the statements that write, since with WAL those would
+ * wait for the connection that writes.
+ */
+public class SQLiteCountStore implements CountStore {
+    private static final String AGGREGATE_QUERY = "SELECT IFNULL(SUM(count), 0), COUNT(*), "
+            + "IFNULL(MIN(count), 0), IFNULL(MAX(count), 0) FROM %s WHERE "
+            + TimeCounterHelper.COLUMN_SEQ + " BETWEEN ? AND ?";
+
+    private SQLiteDatabase database;
+    private String table;
+
+    private int size;
+    private long lastStart;
+
+    // The running total before each archived block, followed by the running total at the end of the
+    // archive. The amount of archived buckets is always a whole number of blocks.
+    private long[] blockCumulative = new long[] { 0 };
+    private int archived;
+
+    // The last block that was decoded, since reads tend to stay in the same block.
+    private int cachedIndex = -1;
+    private CountBlock cachedBlock;
+
+    private SQLiteStatement insertStatement;
+    private SQLiteStatement cumulativeStatement;
+    private SQLiteStatement startStatement;
+    private SQLiteStatement clearStatement;
+    private SQLiteStatement metadataStatement;
+    private SQLiteStatement archiveStatement;
+    private SQLiteStatement trimStatement;
+
+    /**
+     * Creates a store over one of the count tables.
+     *
+     * @param database The open database that has the table.
+     * @param table The name of the count table.
+     */
+    public SQLiteCountStore(SQLiteDatabase database, String table) {
+        this(database, table, false);
+    }
+
+    /**
+     * Creates a store over one of the count tables that may only be read from.
+     *
+     * @param database The open database that has the table.
+     * @param table The name of the count table.
+     * @param readOnly True if the store is never written to.
+     */
+    public SQLiteCountStore(SQLiteDatabase database, String table, boolean readOnly) {
+        this.database = database;
+        this.table = table;
+
+        Cursor cursor = database.query(TimeCounterHelper.TABLE_METADATA_NAME, new String[] {
+                TimeCounterHelper.COLUMN_SIZE, TimeCounterHelper.COLUMN_LAST_START },
+                TimeCounterHelper.COLUMN_NAME + " = ?", new String[] { table }, null, null, null);
+        if(cursor.moveToFirst()) {
+            size = cursor.getInt(0);
+            lastStart = cursor.getLong(1);
+        }
+        cursor.close();
+
+        Cursor blocks = database.query(TimeCounterHelper.TABLE_ARCHIVE_NAME, new String[] {
+                TimeCounterHelper.COLUMN_CUMULATIVE, TimeCounterHelper.COLUMN_SUM },
+                TimeCounterHelper.COLUMN_NAME + " = ?", new String[] { table }, null, null,
+                TimeCounterHelper.COLUMN_BLOCK);
+        blocks.moveToFirst();
+        while(!blocks.isAfterLast()) {
+            addBlock(blocks.getLong(0), blocks.getLong(1));
+            blocks.moveToNext();
+        }
+        blocks.close();
+
+        cumulativeStatement = database.compileStatement("SELECT IFNULL((SELECT "
+                + TimeCounterHelper.COLUMN_CUMULATIVE + " FROM " + table + " WHERE "
+                + TimeCounterHelper.COLUMN_SEQ + " = ?), 0)");
+        startStatement = database.compileStatement("SELECT " + TimeCounterHelper.COLUMN_START
+                + " FROM " + table + " WHERE " + TimeCounterHelper.COLUMN_SEQ + " = ?");
+        if(readOnly)
+            return;
+
+        insertStatement = database.compileStatement("INSERT INTO " + table + " ("
+                + TimeCounterHelper.COLUMN_START + ", " + TimeCounterHelper.COLUMN_SEQ + ", "
+                + TimeCounterHelper.COLUMN_COUNT + ", " + TimeCounterHelper.COLUMN_CUMULATIVE
+                + ") VALUES (?, ?, ?, ?)");
+        clearStatement = database.compileStatement("DELETE FROM " + table);
+        metadataStatement = database.compileStatement("UPDATE "
+                + TimeCounterHelper.TABLE_METADATA_NAME + " SET " + TimeCounterHelper.COLUMN_SIZE
+                + " = ?, " + TimeCounterHelper.COLUMN_LAST_START + " = ? WHERE "
+                + TimeCounterHelper.COLUMN_NAME + " = ?");
+        archiveStatement = database.compileStatement("INSERT INTO "
+                + TimeCounterHelper.TABLE_ARCHIVE_NAME + " (" + TimeCounterHelper.COLUMN_NAME + ", "
+                + TimeCounterHelper.COLUMN_BLOCK + ", " + TimeCounterHelper.COLUMN_CUMULATIVE + ", "
+                + TimeCounterHelper.COLUMN_SUM + ", " + TimeCounterHelper.COLUMN_STARTS + ", "
+                + TimeCounterHelper.COLUMN_COUNTS + ") VALUES (?, ?, ?, ?, ?, ?)");
+        trimStatement = database.compileStatement("DELETE FROM " + table + " WHERE "
+                + TimeCounterHelper.COLUMN_SEQ + " <= ?");
+    }
+
+    @Override
+    public void append(long start, int count) {
+        database.beginTransactionNonExclusive();
+        try {
+            insertStatement.bindLong(1, start);
+            insertStatement.bindLong(2, size + 1);
+            insertStatement.bindLong(3, count);
+            insertStatement.bindLong(4, cumulativeAt(size) + count);
+            insertStatement.executeInsert();
+
+            updateMetadata(size + 1, start);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        size++;
+        lastStart = start;
+    }
+
+    @Override
+    public void clear() {
+        database.beginTransactionNonExclusive();
+        try {
+            clearStatement.executeUpdateDelete();
+            database.delete(TimeCounterHelper.TABLE_ARCHIVE_NAME,
+                    TimeCounterHelper.COLUMN_NAME + " = ?", new String[] { table });
+
+            updateMetadata(0, lastStart);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        size = 0;
+        blockCumulative = new long[] { 0 };
+        archived = 0;
+        cachedIndex = -1;
+        cachedBlock = null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long getLastStart() {
+        return lastStart;
+    }
+
+    @Override
+    public long getStart(int seq) {
+        if(seq <= archived)
+            return getBlock(seq).starts[(seq - 1) % CountBlock.SIZE];
+
+        startStatement.bindLong(1, seq);
+        return startStatement.simpleQueryForLong();
+    }
+
+    @Override
+    public int[] read(int start, int end) {
+        if(end < start)
+            return new int[0];
+
+        int[] counts = new int[end - start + 1];
+        int seq = start;
+        for(; seq <= Math.min(end, archived); seq++)
+            counts[seq - start] = getBlock(seq).counts[(seq - 1) % CountBlock.SIZE];
+
+        if(seq > end)
+            return counts;
+
+        Cursor cursor = database.query(table, new String[] { TimeCounterHelper.COLUMN_COUNT },
+                TimeCounterHelper.COLUMN_SEQ + " >= " + Integer.toString(seq)
+                + " and " + TimeCounterHelper.COLUMN_SEQ + " <= " + Integer.toString(end),
+                null, null, null, TimeCounterHelper.COLUMN_SEQ);
+
+        int offset = seq - start;
+        cursor.moveToFirst();
+        while(!cursor.isAfterLast()) {
+            counts[offset + cursor.getPosition()] = cursor.getInt(0);
+            cursor.moveToNext();
+        }
+        int read = offset + cursor.getCount();
+        cursor.close();
+
+        return read == counts.length ? counts : Arrays.copyOf(counts, read);
+    }
+
+    @Override
+    public int sum(int start, int end) {
+        if(end < start)
+            return 0;
+
+        return (int) (cumulativeAt(end) - cumulativeAt(start - 1));
+    }
+
+    @Override
+    public IntervalAggregate aggregate(int start, int end) {
+        IntervalAggregate aggregate = StoreUtils.aggregate(read(start, Math.min(end, archived)));
+
+        int liveStart = Math.max(start, archived + 1);
+        if(liveStart > end)
+            return aggregate;
+
+        Cursor cursor = database.rawQuery(String.format(AGGREGATE_QUERY, table),
+                new String[] { Integer.toString(liveStart), Integer.toString(end) });
+        cursor.moveToFirst();
+
+        IntervalAggregate live = new IntervalAggregate(cursor.getInt(0), cursor.getInt(1),
+                cursor.getInt(2), cursor.getInt(3));
+        cursor.close();
+
+        return StoreUtils.merge(aggregate, live);
+    }
+
+    @Override
+    public void compact(long before) {
+        // The last bucket is always left live so that the next append can find its running total.
+        while(archived + CountBlock.SIZE < size && getStart(archived + CountBlock.SIZE) < before) {
+            int first = archived + 1;
+            int last = archived + CountBlock.SIZE;
+
+            Cursor cursor = database.query(table, new String[] { TimeCounterHelper.COLUMN_START,
+                    TimeCounterHelper.COLUMN_COUNT }, TimeCounterHelper.COLUMN_SEQ + " >= " + first
+                    + " and " + TimeCounterHelper.COLUMN_SEQ + " <= " + last, null, null, null,
+                    TimeCounterHelper.COLUMN_SEQ);
+
+            long[] starts = new long[CountBlock.SIZE];
+            int[] counts = new int[CountBlock.SIZE];
+            cursor.moveToFirst();
+            while(!cursor.isAfterLast()) {
+                starts[cursor.getPosition()] = cursor.getLong(0);
+                counts[cursor.getPosition()] = cursor.getInt(1);
+                cursor.moveToNext();
+            }
+            cursor.close();
+
+            CountBlock block = new CountBlock(starts, counts);
+            long cumulative = cumulativeAt(archived);
+
+            database.beginTransactionNonExclusive();
+            try {
+                archiveStatement.bindString(1, table);
+                archiveStatement.bindLong(2, archived / CountBlock.SIZE);
+                archiveStatement.bindLong(3, cumulative);
+                archiveStatement.bindLong(4, block.sum());
+                archiveStatement.bindBlob(5, block.encodeStarts());
+                archiveStatement.bindBlob(6, block.encodeCounts());
+                archiveStatement.executeInsert();
+
+                trimStatement.bindLong(1, last);
+                trimStatement.executeUpdateDelete();
+
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+
+            addBlock(cumulative, block.sum());
+        }
+    }
+
+    @Override
+    public void close() {
+        cumulativeStatement.close();
+        startStatement.close();
+        if(insertStatement == null)
+            return;
+
+        insertStatement.close();
+        clearStatement.close();
+        metadataStatement.close();
+        archiveStatement.close();
+        trimStatement.close();
+    }
+
+    /**
+     * Gets the running total at the bucket at the given position, from the archive if the bucket
+     * is archived or else with a single lookup on the covering seq index.
+     *
+     * @param seq The position of the bucket to get the running total at.
+     * @return The running total at the bucket, or 0 for the position 0 before the first bucket.
+     */
+    private long cumulativeAt(int seq) {
+        if(seq <= archived) {
+            if(seq % CountBlock.SIZE == 0)
+                return blockCumulative[seq / CountBlock.SIZE];
+
+            int index = (seq - 1) / CountBlock.SIZE;
+            CountBlock block = getBlock(seq);
+
+            long cumulative = blockCumulative[index];
+            for(int i = 0; i <= (seq - 1) % CountBlock.SIZE; i++)
+                cumulative += block.counts[i];
+
+            return cumulative;
+        }
+
+        cumulativeStatement.bindLong(1, seq);
+        return cumulativeStatement.simpleQueryForLong();
+    }
+
+    /**
+     * Gets the decoded archive block that has the bucket at the given position.
+     *
+     * @param seq The position of an archived bucket.
+     * @return The block with the bucket.
+     */
+    private CountBlock getBlock(int seq) {
+        int index = (seq - 1) / CountBlock.SIZE;
+        if(index == cachedIndex)
+            return cachedBlock;
+
+        Cursor cursor = database.query(TimeCounterHelper.TABLE_ARCHIVE_NAME, new String[] {
+                TimeCounterHelper.COLUMN_STARTS, TimeCounterHelper.COLUMN_COUNTS },
+                TimeCounterHelper.COLUMN_NAME + " = ? AND " + TimeCounterHelper.COLUMN_BLOCK + " = "
+                + index, new String[] { table }, null, null, null);
+        cursor.moveToFirst();
+        cachedBlock = CountBlock.decode(cursor.getBlob(0), cursor.getBlob(1));
+        cursor.close();
+
+        cachedIndex = index;
+        return cachedBlock;
+    }
+
+    /**
+     * Records that the next block of buckets has been archived.
+     *
+     * @param cumulative The running total before the block.
+     * @param sum The sum of the counts in the block.
+     */
+    private void addBlock(long cumulative, long sum) {
+        int blocks = blockCumulative.length;
+        blockCumulative = Arrays.copyOf(blockCumulative, blocks + 1);
+        blockCumulative[blocks - 1] = cumulative;
+        blockCumulative[blocks] = cumulative + sum;
+
+        archived += CountBlock.SIZE;
+    }
+
+    /**
+     * Records the size and last start time of the table in the metadata table.
+     *
+     * @param size The new amount of rows in the table.
+     * @param lastStart The start time of the last row added to the table.
+     */
+    private void updateMetadata(int size, long lastStart) {
+        metadataStatement.bindLong(1, size);
+        metadataStatement.bindLong(2, lastStart);
+        metadataStatement.bindString(3, table);
+        metadataStatement.executeUpdateDelete();
+    }
+}
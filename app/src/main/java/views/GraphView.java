@@ -15,6 +15,7 @@ import com.grioni.app.screenwakecounter.R;
 import java.util.ArrayList;
 import java.util.List;
 
+import models.IntSeries;
 import utils.DataUtils;
 
 /**
@@ -36,7 +37,7 @@ public class GraphView extends View {
     private String xAxisLabel;
     private String yAxisLabel;
 
-    private List<Integer> points;
+    private IntSeries points;
     private List<Integer> selected;
 
     // This is the x position of the x-axis and the y position of the y-axis
@@ -91,7 +92,7 @@ public class GraphView extends View {
     }
 
     private void init() {
-        points = new ArrayList<>();
+        points = new IntSeries();
         selected = new ArrayList<>();
     }
 
@@ -272,16 +273,16 @@ public class GraphView extends View {
      *
      * @param points
      */
-    public void setData(List<Integer> points) {
+    public void setData(IntSeries points) {
         if(points == null)
-            points = new ArrayList<>();
+            points = new IntSeries();
         this.points = points;
     }
 
     /**
      * @return A reference to the data points represented in this GraphView.
      */
-    public List<Integer> getData(){
+    public IntSeries getData(){
         return this.points;
     }
 
@@ -0,0 +1,70 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import stores.CountEngine;
+
+/**
+ * @author Matias Grioni
+ * @created 1/16/16
+ *
+ * Measures adding hours to the end of a history. addHour adds a single hour, and addDay adds a
+ * whole day so that every invocation goes through the rollover at the end of the day.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class AddHourBenchmark {
+    @Param({ "MONTH", "YEAR", "FIVE_YEARS" })
+    public History history;
+
+    @Param({ "MEMORY", "MAPPED" })
+    public Backend backend;
+
+    private CountEngine engine;
+    private long hourStart;
+
+    // Each iteration starts from the same history so the iterations do not keep growing it.
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        engine = history.load(backend);
+        hourStart = History.END;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Benchmark
+    public void addHour() {
+        engine.addHour(hourStart, 12);
+        hourStart += CountEngine.HOUR_MILLIS;
+    }
+
+    @Benchmark
+    public void addDay() {
+        for(int hour = 0; hour < CountEngine.DAY_TO_HOUR; hour++) {
+            engine.addHour(hourStart, 12);
+            hourStart += CountEngine.HOUR_MILLIS;
+        }
+    }
+}
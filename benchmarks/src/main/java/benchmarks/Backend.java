@@ -0,0 +1,36 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import stores.CountStore;
+import stores.MappedCountStore;
+import stores.MemoryCountStore;
+
+/**
+ * @author Matias Grioni
+ * @created 1/16/16
+ *
+ * The kinds of CountStore that the benchmarks can run against. The SQLite store needs a device, so
+ * only the stores in the core module are here.
+ */
+public enum Backend {
+    MEMORY, MAPPED;
+
+    /**
+     * Creates an empty store of this kind.
+     *
+     * @param name The name of the store, used for the file of a mapped store.
+     * @return The new store.
+     * @throws IOException If the file for a mapped store can not be made.
+     */
+    public CountStore createStore(String name) throws IOException {
+        if(this == MEMORY)
+            return new MemoryCountStore();
+
+        File file = File.createTempFile(name, ".counts");
+        file.deleteOnExit();
+
+        return new MappedCountStore(file);
+    }
+}
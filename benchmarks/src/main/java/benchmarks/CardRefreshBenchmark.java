@@ -0,0 +1,84 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import models.IntSeries;
+import models.TimeInterval;
+import stores.CountEngine;
+
+/**
+ * @author Matias Grioni
+ * @created 1/18/16
+ *
+ * Measures refreshing all of the cards, one getEntries per card against a single batch, as the
+ * amount of cards grows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CardRefreshBenchmark {
+    @Param({ "YEAR", "FIVE_YEARS" })
+    public History history;
+
+    @Param({ "MEMORY", "MAPPED" })
+    public Backend backend;
+
+    @Param({ "3", "12", "24" })
+    public int cards;
+
+    private CountEngine engine;
+    private TimeInterval[] intervals;
+    private int[] backCounts;
+
+    @Setup
+    public void setUp() throws IOException {
+        engine = history.load(backend);
+
+        // Cycle through the intervals with a spread of windows, like a user's list of cards.
+        int[] windows = { 1, 7, 12, 30, 52, 365 };
+        intervals = new TimeInterval[cards];
+        backCounts = new int[cards];
+        for(int i = 0; i < cards; i++) {
+            intervals[i] = TimeInterval.values()[i % TimeInterval.values().length];
+            backCounts[i] = windows[i % windows.length];
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Benchmark
+    public List<IntSeries> perCard() {
+        List<IntSeries> entries = new ArrayList<>();
+        for(int i = 0; i < cards; i++)
+            entries.add(engine.getEntries(intervals[i], backCounts[i], 0));
+
+        return entries;
+    }
+
+    @Benchmark
+    public List<IntSeries> batch() {
+        return engine.getEntries(intervals, backCounts, 0);
+    }
+}
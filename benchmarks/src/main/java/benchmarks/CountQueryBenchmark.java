@@ -0,0 +1,70 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import models.IntSeries;
+import models.TimeInterval;
+import stores.CountEngine;
+
+/**
+ * @author Matias Grioni
+ * @created 1/16/16
+ *
+ * Measures the reads behind the notification and the cards, getCount and getEntries, for every
+ * TimeInterval over a range of backCounts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CountQueryBenchmark {
+    @Param({ "MONTH", "YEAR", "FIVE_YEARS" })
+    public History history;
+
+    @Param({ "MEMORY", "MAPPED" })
+    public Backend backend;
+
+    @Param({ "Hour", "Day", "Week", "Month" })
+    public TimeInterval interval;
+
+    @Param({ "1", "7", "30", "365" })
+    public int backCount;
+
+    private CountEngine engine;
+
+    @Setup
+    public void setUp() throws IOException {
+        engine = history.load(backend);
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Benchmark
+    public int getCount() {
+        return engine.getCount(interval, backCount, 0);
+    }
+
+    @Benchmark
+    public IntSeries getEntries() {
+        return engine.getEntries(interval, backCount, 0);
+    }
+}
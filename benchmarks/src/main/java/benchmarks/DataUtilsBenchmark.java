@@ -0,0 +1,64 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import models.IntSeries;
+import utils.DataUtils;
+import utils.WorkloadGenerator;
+
+/**
+ * @author Matias Grioni
+ * @created 1/16/16
+ *
+ * Measures the statistics shown on the graph detail over series of points as long as the cards
+ * can have.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DataUtilsBenchmark {
+    @Param({ "24", "365", "1825" })
+    public int size;
+
+    private IntSeries data;
+
+    @Setup
+    public void setUp() {
+        data = new IntSeries(new WorkloadGenerator(History.SEED).generate(History.END, size));
+    }
+
+    @Benchmark
+    public int sum() {
+        return DataUtils.sum(data);
+    }
+
+    @Benchmark
+    public double average() {
+        return DataUtils.average(data);
+    }
+
+    @Benchmark
+    public double stdev() {
+        return DataUtils.stdev(data);
+    }
+
+    @Benchmark
+    public int max() {
+        return DataUtils.max(data);
+    }
+}
@@ -0,0 +1,56 @@
+package benchmarks;
+
+import java.io.IOException;
+
+import models.TimeInterval;
+import stores.CountEngine;
+import stores.CountStore;
+import utils.WorkloadGenerator;
+
+/**
+ * @author Matias Grioni
+ * @created 1/16/16
+ *
+ * The lengths of history that the benchmarks are run against, since the app slows down as its
+ * history grows. A history is every hour from its start until END, made up by a WorkloadGenerator
+ * so the counts are the same for the same seed.
+ */
+public enum History {
+    MONTH(30), YEAR(365), FIVE_YEARS(5 * 365);
+
+    public static final long SEED = 42;
+
+    // Every history ends at the start of 2016 so that its hours fall on the same days of the week.
+    public static final long END = 1451606400000L;
+
+    public final int hours;
+
+    History(int days) {
+        this.hours = days * 24;
+    }
+
+    /**
+     * Creates an engine over new stores of the given kind and fills it with this history. Every
+     * finished day, week, and month is memoized, as it would be once the app's cards have been
+     * read, so that the benchmarks measure the steady state.
+     *
+     * @param backend The kind of store to use.
+     * @return The filled engine.
+     * @throws IOException If the stores can not be made.
+     */
+    public CountEngine load(Backend backend) throws IOException {
+        CountStore[] stores = new CountStore[TimeInterval.values().length];
+        for(TimeInterval interval : TimeInterval.values())
+            stores[interval.ordinal()] = backend.createStore(interval.name());
+
+        CountEngine engine = new CountEngine(stores, null);
+
+        long start = END - hours * CountEngine.HOUR_MILLIS;
+        engine.load(start, new WorkloadGenerator(SEED).generate(start, hours));
+
+        for(TimeInterval interval : TimeInterval.values())
+            engine.aggregate(interval, 1, engine.getEntryCount(interval));
+
+        return engine;
+    }
+}
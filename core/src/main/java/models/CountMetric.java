@@ -0,0 +1,14 @@
+package models;
+
+/**
+ * @author Matias Grioni
+ * @created 1/25/16
+ *
+ * What is counted in each hour. Every metric is kept in its own set of buckets, which are rolled up
+ * into days, weeks, and months the same way. ScreenOn is the time the screen was on in seconds,
+ * Sessions is how many times it was turned off after being on, and Unlocks is how many times the
+ * keyguard was passed.
+ */
+public enum CountMetric {
+    Wakes, ScreenOn, Sessions, Unlocks
+}
@@ -0,0 +1,79 @@
+package models;
+
+/**
+ * @author Matias Grioni
+ * @created 1/19/16
+ *
+ * A run of int entries kept in a plain array, such as the points of a TimeCard. The entries are
+ * values[offset] through values[offset + length - 1], so many series can be views into the same
+ * array without boxing or copying any entries.
+ */
+public class IntSeries {
+    public int[] values;
+    public int offset;
+    public int length;
+
+    /**
+     * Creates an empty series.
+     */
+    public IntSeries() {
+        this(new int[0]);
+    }
+
+    /**
+     * Creates a series of all the entries in the array. Does not copy the array.
+     *
+     * @param values The entries of the series.
+     */
+    public IntSeries(int[] values) {
+        this(values, 0, values.length);
+    }
+
+    /**
+     * Creates a series that is a view into part of the array. Does not copy the array.
+     *
+     * @param values The array holding the entries.
+     * @param offset The index in the array of the first entry.
+     * @param length The amount of entries.
+     */
+    public IntSeries(int[] values, int offset, int length) {
+        this.values = values;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * @param index The index of the entry in the series, from 0.
+     * @return The entry at the index.
+     */
+    public int get(int index) {
+        return values[offset + index];
+    }
+
+    /**
+     * Replaces the entry at the index.
+     *
+     * @param index The index of the entry in the series, from 0.
+     * @param value The new value of the entry.
+     */
+    public void set(int index, int value) {
+        values[offset + index] = value;
+    }
+
+    /**
+     * @return The amount of entries in the series.
+     */
+    public int size() {
+        return length;
+    }
+
+    /**
+     * @return A new array with only the entries of this series.
+     */
+    public int[] toArray() {
+        int[] copy = new int[length];
+        System.arraycopy(values, offset, copy, 0, length);
+
+        return copy;
+    }
+}
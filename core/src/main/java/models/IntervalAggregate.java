@@ -0,0 +1,31 @@
+package models;
+
+/**
+ * @author Matias Grioni
+ * @created 1/9/16
+ *
+ * The summary statistics of a range of entries for a TimeInterval. These are computed by the
+ * database in a single statement rather than by walking the entries one at a time, so that a total
+ * can be found without ever copying the individual entries out of the database.
+ */
+public class IntervalAggregate {
+    public int sum;
+    public int count;
+    public int min;
+    public int max;
+
+    /**
+     * Explicit constructor for the IntervalAggregate.
+     *
+     * @param sum - The sum of the entries in the range.
+     * @param count - The amount of entries in the range.
+     * @param min - The smallest entry in the range, or 0 if the range is empty.
+     * @param max - The largest entry in the range, or 0 if the range is empty.
+     */
+    public IntervalAggregate(int sum, int count, int min, int max) {
+        this.sum = sum;
+        this.count = count;
+        this.min = min;
+        this.max = max;
+    }
+}
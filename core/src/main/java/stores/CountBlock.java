@@ -0,0 +1,145 @@
+package stores;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * @author Matias Grioni
+ * @created 1/14/16
+ *
+ * A run of consecutive buckets that has been moved out of a store's live rows into compressed
+ * storage. Each column is encoded on its own. The counts are stored as the zig-zag varint of the
+ * difference from the previous count, and the start times as the zig-zag varint of the change in
+ * the gap between starts, so a steady hour after hour run of starts is one byte per bucket and small
+ * counts are one or two bytes.
+ */
+public class CountBlock {
+    /**
+     * The amount of buckets in every archived block.
+     */
+    public static final int SIZE = 256;
+
+    public long[] starts;
+    public int[] counts;
+
+    /**
+     * Creates a block from the columns of its buckets.
+     *
+     * @param starts The start times of the buckets in order.
+     * @param counts The counts of the buckets in order.
+     */
+    public CountBlock(long[] starts, int[] counts) {
+        this.starts = starts;
+        this.counts = counts;
+    }
+
+    /**
+     * Decodes a block from its encoded columns.
+     *
+     * @param starts The encoded start times, from encodeStarts.
+     * @param counts The encoded counts, from encodeCounts.
+     * @return The decoded block.
+     */
+    public static CountBlock decode(byte[] starts, byte[] counts) {
+        int[] position = new int[1];
+        int length = (int) readVarint(counts, position);
+        int[] decodedCounts = new int[length];
+
+        int count = 0;
+        for(int i = 0; i < length; i++) {
+            count += (int) unzigzag(readVarint(counts, position));
+            decodedCounts[i] = count;
+        }
+
+        position[0] = 0;
+        long[] decodedStarts = new long[length];
+        long start = 0;
+        long gap = 0;
+        for(int i = 0; i < length; i++) {
+            gap += unzigzag(readVarint(starts, position));
+            start += gap;
+            decodedStarts[i] = start;
+        }
+
+        return new CountBlock(decodedStarts, decodedCounts);
+    }
+
+    /**
+     * @return The start times encoded as zig-zag varints of the change in the gap between starts.
+     */
+    public byte[] encodeStarts() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long start = 0;
+        long gap = 0;
+        for(long next : starts) {
+            writeVarint(out, zigzag((next - start) - gap));
+            gap = next - start;
+            start = next;
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * @return The amount of buckets followed by the counts encoded as zig-zag varints of the
+     *         difference from the previous count.
+     */
+    public byte[] encodeCounts() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, counts.length);
+
+        int previous = 0;
+        for(int count : counts) {
+            writeVarint(out, zigzag(count - previous));
+            previous = count;
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * @return The sum of the counts in the block.
+     */
+    public int sum() {
+        int sum = 0;
+        for(int count : counts)
+            sum += count;
+
+        return sum;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Reads a varint from the bytes at the position, and moves the position past it.
+     *
+     * @param bytes The encoded bytes.
+     * @param position A one element array with the offset to read from.
+     * @return The value of the varint.
+     */
+    private static long readVarint(byte[] bytes, int[] position) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while((b & 0x80) != 0);
+
+        return value;
+    }
+}
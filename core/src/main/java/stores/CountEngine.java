@@ -0,0 +1,598 @@
+package stores;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import models.IntSeries;
+import models.IntervalAggregate;
+import models.TimeInterval;
+
+/**
+ * @author Matias Grioni
+ * @created 1/15/16
+ *
+ * The counting and aggregation behind the ScreenCountDatabase, kept free of Android so that it can
+ * be run and measured on any JVM. It is given a CountStore for each TimeInterval, indexed by the
+ * TimeInterval ordinal. Only the hours are written as they pass. The days, weeks, and months are
+ * computed from the hours by a RollupEngine when they are read, and their stores only memoize the
+ * ones that are finished. The last hours and days are also kept in a hot tier in memory.
+ *
+ * The count of the hour that is still going on is not known to the engine, so it is passed in to
+ * every query.
+ */
+public class CountEngine {
+    public static final int DAY_TO_HOUR = 4;
+    public static final int WEEK_TO_DAY = 3;
+    public static final int MONTH_TO_DAY = 4;
+    public static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+    // Buckets that started longer ago than the archive age are compacted into the archive once a
+    // day is finished, since by then they are only ever read.
+    public static final long DEFAULT_ARCHIVE_AGE = 60 * DAY_TO_HOUR * HOUR_MILLIS;
+
+    private CountStore[] stores;
+    private RollupEngine rollups;
+    private WriteGroup writes;
+    private long archiveAge = DEFAULT_ARCHIVE_AGE;
+
+    // An engine that only reads never memoizes, so it can be used while another engine over the
+    // same stores writes. What is not memoized yet is rolled up from the hours on every read.
+    private boolean readOnly;
+
+    // The hot tier holds the last hours and days in memory, since these are what the notification
+    // and the default cards read. It is written through on every addHour and warmed from the
+    // rollup engine when the engine is made. The current partial day, week, or month always fits
+    // in it.
+    private static final int HOT_DAY_COUNT = Math.max(5 * WEEK_TO_DAY, MONTH_TO_DAY);
+    private CountRingBuffer hotHours = new CountRingBuffer(DAY_TO_HOUR);
+    private CountRingBuffer hotDays = new CountRingBuffer(HOT_DAY_COUNT);
+
+    // The start time of the last hour that was added. The start times are the keys of the tables so
+    // they have to keep increasing even if the clock is set back.
+    private long lastHourStart;
+
+    /**
+     * Creates an engine over already opened stores.
+     *
+     * @param stores The store for each TimeInterval, indexed by the TimeInterval ordinal.
+     * @param writes How the changes to the stores are grouped, or null if they do not need to be.
+     */
+    public CountEngine(CountStore[] stores, WriteGroup writes) {
+        this.stores = stores;
+        this.writes = writes;
+
+        openRollups();
+    }
+
+    /**
+     * Closes all of the stores. The engine can not be used afterwards.
+     */
+    public void close() {
+        for(CountStore store : stores)
+            store.close();
+    }
+
+    /**
+     * Sets how old buckets have to be before they are compacted into the archive. Takes effect the
+     * next time a day is finished.
+     *
+     * @param archiveAge The age in milliseconds after which buckets are compacted.
+     */
+    public void setArchiveAge(long archiveAge) {
+        this.archiveAge = archiveAge;
+    }
+
+    /**
+     * Sets whether the engine only reads. An engine that only reads must never be written to.
+     *
+     * @param readOnly True if the engine must not write memoized buckets to its stores.
+     */
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Adds the last hour to the end of the hour store. This is the only write, since the days,
+     * weeks, and months are rolled up from the hours when they are read. A day, week, or month
+     * starts at the same time as its first hour.
+     *
+     * @param hourStart The wall clock time in milliseconds at which the last hour started.
+     * @param hourCount The number of screen wakes in the last hour.
+     */
+    public void addHour(long hourStart, int hourCount) {
+        hourStart = Math.max(hourStart, lastHourStart + 1);
+
+        boolean committed = false;
+        beginWrite();
+        try {
+            rollups.append(hourStart, hourCount);
+            committed = true;
+        } finally {
+            endWrite(committed);
+        }
+
+        // Write the committed hour through to the hot tier. If it finished a day then the whole
+        // day is still in the hot hours.
+        hotHours.add(hourCount);
+        if(rollups.partialSize(TimeInterval.Day.ordinal()) == 0) {
+            int hours = getEntryCount(TimeInterval.Hour);
+            hotDays.add(hotHours.sum(hours - DAY_TO_HOUR + 1, hours));
+
+            compact(hourStart - archiveAge);
+        }
+
+        lastHourStart = hourStart;
+    }
+
+    /**
+     * Adds consecutive finished hours, such as the ones missed while the device was asleep, in one
+     * write group rather than one group per hour.
+     *
+     * @param firstStart The wall clock time in milliseconds at which the first hour started.
+     * @param hourCounts The count of each hour, one after the other.
+     */
+    public void addHours(long firstStart, int[] hourCounts) {
+        boolean committed = false;
+        beginWrite();
+        try {
+            for(int i = 0; i < hourCounts.length; i++)
+                addHour(firstStart + i * HOUR_MILLIS, hourCounts[i]);
+            committed = true;
+        } finally {
+            endWrite(committed);
+        }
+    }
+
+    /**
+     * Replaces the whole history with the given hours, such as a generated one. Every hour is
+     * written in one group rather than one group per hour, and the days, weeks, and months are left
+     * to be rolled up when they are read.
+     *
+     * @param firstStart The wall clock time in milliseconds at which the first hour started.
+     * @param hourCounts The count of each hour, one after the other.
+     */
+    public void load(long firstStart, int[] hourCounts) {
+        CountStore hours = getStore(TimeInterval.Hour);
+
+        boolean committed = false;
+        beginWrite();
+        try {
+            for(CountStore store : stores)
+                store.clear();
+
+            for(int i = 0; i < hourCounts.length; i++)
+                hours.append(firstStart + i * HOUR_MILLIS, hourCounts[i]);
+            committed = true;
+        } finally {
+            endWrite(committed);
+        }
+
+        openRollups();
+        compact(lastHourStart - archiveAge);
+    }
+
+    /**
+     * Replaces the whole history with buckets of 0 at the same times as the buckets of another
+     * engine, such as for a count that was only just added. Besides the hours, the leading days,
+     * weeks, and months the other engine has from before its hours were kept are copied, so every
+     * TimeInterval of both engines has the same amount of entries and they line up one for one.
+     * Everything is written in one group.
+     *
+     * @param other The engine to line up with.
+     */
+    public void loadEmpty(CountEngine other) {
+        boolean committed = false;
+        beginWrite();
+        try {
+            for(CountStore store : stores)
+                store.clear();
+
+            for(TimeInterval interval : TimeInterval.values()) {
+                int count = interval == TimeInterval.Hour ? other.getEntryCount(interval)
+                        : other.rollups.baseSize(interval.ordinal());
+
+                CountStore from = other.getStore(interval);
+                CountStore to = getStore(interval);
+                for(int seq = 1; seq <= count; seq++)
+                    to.append(from.getStart(seq), 0);
+            }
+            committed = true;
+        } finally {
+            endWrite(committed);
+        }
+
+        openRollups();
+        compact(lastHourStart - archiveAge);
+    }
+
+    /**
+     * Memoizes every finished day, week, and month in one group, so that engines that only read
+     * the same stores find them there instead of rolling them up.
+     */
+    public void memoizeFinished() {
+        boolean committed = false;
+        beginWrite();
+        try {
+            for(TimeInterval interval : TimeInterval.values()) {
+                if(interval != TimeInterval.Hour)
+                    memoize(interval, getEntryCount(interval));
+            }
+            committed = true;
+        } finally {
+            endWrite(committed);
+        }
+    }
+
+    /**
+     * @return True if none of the stores have a bucket.
+     */
+    public boolean isEmpty() {
+        for(CountStore store : stores) {
+            if(store.size() > 0)
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Sums the last {@code backCount} entries for the TimeInterval, including the current entry.
+     * Result is equivalent to summing the items in the list from getEntries.
+     *
+     * @param interval The TimeInterval to sum the entries of.
+     * @param backCount How far back to go including the current entry.
+     * @param hourCount The count of the hour that is still going on.
+     * @return The sum of all the selected entries for the TimeInterval.
+     */
+    public int getCount(TimeInterval interval, int backCount, int hourCount) {
+        if(backCount == 1) {
+            backCount = convertSingleton(interval);
+
+            if(interval == TimeInterval.Day)
+                interval = TimeInterval.Hour;
+            else if(interval != TimeInterval.Hour)
+                interval = TimeInterval.Day;
+        }
+
+        // Add together the TimeInterval entries that have already occurred, from the hot tier if
+        // they are all in it. The current TimeInterval is always in the hot tier.
+        int entryCount = getEntryCount(interval);
+        int start = getWindowStart(entryCount, backCount);
+
+        int sum;
+        CountRingBuffer hot = getHotTier(interval);
+        if(hot != null && hot.holds(start, entryCount))
+            sum = hot.sum(start, entryCount);
+        else
+            sum = rollups.sum(interval.ordinal(), start, entryCount);
+
+        sum += currentIntervalCount(interval, hourCount);
+
+        return sum;
+    }
+
+    /**
+     * Gets the last desired entries, including the current entry, for the TimeInterval. The item
+     * order is chronological, and the last point is the current entry.
+     *
+     * @param interval The TimeInterval to get the entries of.
+     * @param backCount How far back to go including the current entry.
+     * @param hourCount The count of the hour that is still going on.
+     * @return A series of the entries with a length of backCount for the TimeInterval.
+     */
+    public IntSeries getEntries(TimeInterval interval, int backCount, int hourCount) {
+        return getEntries(new TimeInterval[] { interval }, new int[] { backCount }, hourCount).get(0);
+    }
+
+    /**
+     * Gets the entries of many windows at once, such as those of all the cards. The windows on the
+     * same TimeInterval share one read of the longest of them, and the current entry of each
+     * TimeInterval is only computed once, so the cost does not grow with the amount of windows.
+     * The series of the windows on the same TimeInterval are views into a single array, so none
+     * of the entries are copied per window.
+     *
+     * @param intervals The TimeInterval of each window.
+     * @param backCounts How far back each window goes including the current entry.
+     * @param hourCount The count of the hour that is still going on.
+     * @return The entries of each window in the same order, as getEntries would give them.
+     */
+    public List<IntSeries> getEntries(TimeInterval[] intervals, int[] backCounts,
+                                      int hourCount) {
+        // Work out the longest window on each TimeInterval once the singleton windows are turned
+        // into windows of the next smaller TimeInterval.
+        TimeInterval[] windowIntervals = new TimeInterval[intervals.length];
+        int[] windowBackCounts = new int[intervals.length];
+        int[] longest = new int[TimeInterval.values().length];
+
+        for(int i = 0; i < intervals.length; i++) {
+            TimeInterval interval = intervals[i];
+            int backCount = backCounts[i];
+            if(backCount == 1) {
+                backCount = convertSingleton(interval);
+
+                if(interval == TimeInterval.Day)
+                    interval = TimeInterval.Hour;
+                else if(interval != TimeInterval.Hour)
+                    interval = TimeInterval.Day;
+            }
+
+            windowIntervals[i] = interval;
+            windowBackCounts[i] = backCount;
+            longest[interval.ordinal()] = Math.max(longest[interval.ordinal()], backCount);
+        }
+
+        // Read the entries that have already occurred for each TimeInterval at most once, with its
+        // current entry put after them in the same array.
+        int[][] reads = new int[longest.length][];
+        int[] readStarts = new int[longest.length];
+        for(TimeInterval interval : TimeInterval.values()) {
+            int backCount = longest[interval.ordinal()];
+            if(backCount == 0)
+                continue;
+
+            int entryCount = getEntryCount(interval);
+            int start = getWindowStart(entryCount, backCount);
+
+            int[] finished = readEntries(interval, start, entryCount);
+            int[] read = new int[finished.length + 1];
+            System.arraycopy(finished, 0, read, 0, finished.length);
+            read[finished.length] = currentIntervalCount(interval, hourCount);
+
+            reads[interval.ordinal()] = read;
+            readStarts[interval.ordinal()] = start;
+        }
+
+        // Each window is the tail of the read of its TimeInterval.
+        List<IntSeries> windows = new ArrayList<>(intervals.length);
+        for(int i = 0; i < intervals.length; i++) {
+            int ordinal = windowIntervals[i].ordinal();
+            int[] read = reads[ordinal];
+            int start = getWindowStart(getEntryCount(windowIntervals[i]), windowBackCounts[i]);
+
+            int offset = start - readStarts[ordinal];
+            windows.add(new IntSeries(read, offset, read.length - offset));
+        }
+
+        return windows;
+    }
+
+    /**
+     * Computes the sum, count, min and max of the finished entries for the TimeInterval at
+     * positions from start to end inclusive. The range is memoized first and then aggregated by
+     * its store. An engine that only reads aggregates what is not memoized from the rolled up
+     * entries instead.
+     *
+     * @param interval The TimeInterval to aggregate.
+     * @param start The position of the first entry in the range. 1 is the first possible value.
+     * @param end The position of the last entry in the range.
+     * @return The aggregate of the entries in the range.
+     */
+    public IntervalAggregate aggregate(TimeInterval interval, int start, int end) {
+        memoize(interval, end);
+        if(rollups.memoized(interval.ordinal()) < Math.min(end, getEntryCount(interval)))
+            return StoreUtils.aggregate(rollups.read(interval.ordinal(), start, end));
+
+        return getStore(interval).aggregate(start, end);
+    }
+
+    /**
+     * Gets the amount of finished entries for the TimeInterval. For example if there are 7 weeks
+     * finished so far then 7 is returned when TimeInterval.Week is given. This counts every finished
+     * entry even if it is not memoized yet.
+     *
+     * @param interval The TimeInterval to get the entry counts for.
+     * @return The amount of finished entries for that TimeInterval.
+     */
+    public int getEntryCount(TimeInterval interval) {
+        return rollups.size(interval.ordinal());
+    }
+
+    /**
+     * @return The wall clock time in milliseconds at which the last added hour started, or 0 if no
+     *         hour was ever added.
+     */
+    public long getLastHourStart() {
+        return lastHourStart;
+    }
+
+    /**
+     * Gets the start time of a finished hour.
+     *
+     * @param seq The position of the hour, from 1 to the amount of finished hours.
+     * @return The wall clock time in milliseconds at which the hour started.
+     */
+    public long getHourStart(int seq) {
+        return getStore(TimeInterval.Hour).getStart(seq);
+    }
+
+    /**
+     * Builds the rollup engine over the stores and warms the hot tier from it.
+     */
+    private void openRollups() {
+        // A day is made of hours, and a week or month of days. Each is a level of the rollup
+        // engine at its TimeInterval ordinal.
+        rollups = new RollupEngine(getStore(TimeInterval.Hour));
+        rollups.addLevel(getStore(TimeInterval.Day), TimeInterval.Hour.ordinal(), DAY_TO_HOUR);
+        rollups.addLevel(getStore(TimeInterval.Week), TimeInterval.Day.ordinal(), WEEK_TO_DAY);
+        rollups.addLevel(getStore(TimeInterval.Month), TimeInterval.Day.ordinal(), MONTH_TO_DAY);
+
+        // The hour store may never have had a row if it was migrated from an older version, so the
+        // start of the last day is also checked.
+        lastHourStart = Math.max(getStore(TimeInterval.Hour).getLastStart(),
+                getStore(TimeInterval.Day).getLastStart());
+
+        warmHotTier();
+    }
+
+    /**
+     * Gives the position of the first finished entry of a window, which is 1 if the window goes
+     * back further than there are entries.
+     *
+     * @param entryCount The amount of finished entries.
+     * @param backCount How far back the window goes including the current entry.
+     * @return The position of the first finished entry in the window.
+     */
+    private int getWindowStart(int entryCount, int backCount) {
+        return (entryCount - (backCount - 1)) < 0 ? 1 : entryCount - (backCount - 1) + 1;
+    }
+
+    /**
+     * Reads the finished entries of the TimeInterval at positions from start to end inclusive,
+     * from the hot tier if they are all in it or else from the rollup engine after memoizing them.
+     *
+     * @param interval The TimeInterval to read.
+     * @param start The position of the first entry.
+     * @param end The position of the last entry.
+     * @return The entries in order.
+     */
+    private int[] readEntries(TimeInterval interval, int start, int end) {
+        CountRingBuffer hot = getHotTier(interval);
+        if(hot != null && hot.holds(start, end)) {
+            int[] counts = new int[Math.max(0, end - start + 1)];
+            for(int seq = start; seq <= end; seq++)
+                counts[seq - start] = hot.get(seq);
+
+            return counts;
+        }
+
+        memoize(interval, end);
+        return rollups.read(interval.ordinal(), start, end);
+    }
+
+    /**
+     * Gets the current screen wake count for the desired interval.
+     *
+     * @param interval The TimeInterval to find the current screen wake count for.
+     * @param hourCount The count of the hour that is still going on.
+     * @return The current screen wake count for a given TimeInterval.
+     */
+    private int currentIntervalCount(TimeInterval interval, int hourCount) {
+        // Sum up the current TimeInterval from the hot tier. If we want the hour points, then the
+        // last hour is only the current hour count. If the interval is a day then we have to
+        // include all the current hours of this day in the count. If it's a week or month, we have
+        // to include the days leading up to the current day too.
+        int current = hourCount;
+        if(interval != TimeInterval.Hour) {
+            if(interval != TimeInterval.Day) {
+                int daySize = getEntryCount(TimeInterval.Day);
+                int partialDays = rollups.partialSize(interval.ordinal());
+                current += hotDays.sum(daySize - partialDays + 1, daySize);
+            }
+
+            int hourSize = getEntryCount(TimeInterval.Hour);
+            int partialHours = rollups.partialSize(TimeInterval.Day.ordinal());
+            current += hotHours.sum(hourSize - partialHours + 1, hourSize);
+        }
+
+        return current;
+    }
+
+    /**
+     * Fills the hot tier with the last hours and days from the rollup engine.
+     */
+    private void warmHotTier() {
+        int hourSize = getEntryCount(TimeInterval.Hour);
+        int firstHour = Math.max(1, hourSize - DAY_TO_HOUR + 1);
+        hotHours.reset(firstHour - 1);
+        for(int count : rollups.read(TimeInterval.Hour.ordinal(), firstHour, hourSize))
+            hotHours.add(count);
+
+        int daySize = getEntryCount(TimeInterval.Day);
+        int firstDay = Math.max(1, daySize - HOT_DAY_COUNT + 1);
+        hotDays.reset(firstDay - 1);
+        for(int count : rollups.read(TimeInterval.Day.ordinal(), firstDay, daySize))
+            hotDays.add(count);
+    }
+
+    /**
+     * Gives the hot tier buffer for the TimeInterval, if it has one.
+     *
+     * @param interval The TimeInterval to get the buffer for.
+     * @return The buffer of the last entries for the TimeInterval or null if it is not held in
+     *         memory.
+     */
+    private CountRingBuffer getHotTier(TimeInterval interval) {
+        if(interval == TimeInterval.Hour)
+            return hotHours;
+        else if(interval == TimeInterval.Day)
+            return hotDays;
+
+        return null;
+    }
+
+    /**
+     * Writes the finished entries of the TimeInterval up to end into its store, if they are not
+     * there already and the engine writes. All of them are written in one group.
+     *
+     * @param interval The TimeInterval to memoize.
+     * @param end The position of the last entry to memoize.
+     */
+    private void memoize(TimeInterval interval, int end) {
+        int memoized = rollups.memoized(interval.ordinal());
+        if(readOnly || memoized >= Math.min(end, getEntryCount(interval)))
+            return;
+
+        boolean committed = false;
+        beginWrite();
+        try {
+            rollups.memoize(interval.ordinal(), end);
+            committed = true;
+        } finally {
+            endWrite(committed);
+        }
+    }
+
+    /**
+     * Compacts the buckets of every store that started before the given time in one group.
+     *
+     * @param before The wall clock time in milliseconds before which buckets are compacted.
+     */
+    private void compact(long before) {
+        boolean committed = false;
+        beginWrite();
+        try {
+            for(CountStore store : stores)
+                store.compact(before);
+            committed = true;
+        } finally {
+            endWrite(committed);
+        }
+    }
+
+    private void beginWrite() {
+        if(writes != null)
+            writes.begin();
+    }
+
+    private void endWrite(boolean committed) {
+        if(writes != null)
+            writes.end(committed);
+    }
+
+    /**
+     * Gives the store that keeps the entries of the TimeInterval.
+     *
+     * @param interval The TimeInterval to get the store for.
+     * @return The store for the TimeInterval.
+     */
+    private CountStore getStore(TimeInterval interval) {
+        return stores[interval.ordinal()];
+    }
+
+    /**
+     * Returns the conversion factor between a TimeInterval and it's next smallest unit.
+     *
+     * @param interval The TimeInterval to convert.
+     * @return The conversion answer between the TimeInterval and the next smallest TimeInterval.
+     */
+    private int convertSingleton(TimeInterval interval) {
+        if(interval == TimeInterval.Day)
+            return DAY_TO_HOUR;
+        else if(interval == TimeInterval.Week)
+            return WEEK_TO_DAY;
+        else if(interval == TimeInterval.Month)
+            return MONTH_TO_DAY;
+
+        return 1;
+    }
+}
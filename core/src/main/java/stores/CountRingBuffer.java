@@ -0,0 +1,94 @@
+package stores;
+
+/**
+ * @author Matias Grioni
+ * @created 1/10/16
+ *
+ * A fixed size buffer of the last entries of one of the count tables, kept in a primitive array so
+ * that recent entries can be read without going to the database. Entries are referred to by the
+ * same positions they have in their table, with 1 being the first row. Once the buffer is full,
+ * adding an entry overwrites the oldest one.
+ */
+class CountRingBuffer {
+    private int[] counts;
+
+    // The index in counts that the next entry will be written to, the amount of entries currently
+    // held, and the table position of the newest entry held.
+    private int head;
+    private int length;
+    private int lastSeq;
+
+    /**
+     * Creates an empty buffer that holds at most capacity entries.
+     *
+     * @param capacity The amount of the most recent entries to hold.
+     */
+    CountRingBuffer(int capacity) {
+        counts = new int[capacity];
+    }
+
+    /**
+     * Empties the buffer. The next entry added will be at the position after lastSeq.
+     *
+     * @param lastSeq The position of the last row in the table.
+     */
+    void reset(int lastSeq) {
+        this.head = 0;
+        this.length = 0;
+        this.lastSeq = lastSeq;
+    }
+
+    /**
+     * Adds the next entry of the table to the buffer, dropping the oldest entry if it is full.
+     *
+     * @param count The count of the entry.
+     */
+    void add(int count) {
+        counts[head] = count;
+        head = (head + 1) % counts.length;
+        length = Math.min(length + 1, counts.length);
+        lastSeq++;
+    }
+
+    /**
+     * Checks whether the entries at positions from start to end inclusive are all held in the
+     * buffer. An empty range is always held.
+     *
+     * @param start The position of the first entry.
+     * @param end The position of the last entry.
+     * @return True if every entry in the range can be read from the buffer.
+     */
+    boolean holds(int start, int end) {
+        if(end < start)
+            return true;
+
+        return start > lastSeq - length && end <= lastSeq;
+    }
+
+    /**
+     * Gets the entry at the given table position. The position must be held by the buffer.
+     *
+     * @param seq The position of the entry in its table.
+     * @return The count of the entry.
+     */
+    int get(int seq) {
+        int back = lastSeq - seq + 1;
+        return counts[(head - back + counts.length) % counts.length];
+    }
+
+    /**
+     * Sums the entries at positions from start to end inclusive. The range must be held by the
+     * buffer.
+     *
+     * @param start The position of the first entry.
+     * @param end The position of the last entry.
+     * @return The sum of the entries, or 0 for an empty range.
+     */
+    int sum(int start, int end) {
+        int sum = 0;
+        for(int seq = start; seq <= end; seq++)
+            sum += get(seq);
+
+        return sum;
+    }
+}
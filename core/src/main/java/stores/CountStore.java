@@ -0,0 +1,87 @@
+package stores;
+
+import models.IntervalAggregate;
+
+/**
+ * @author Matias Grioni
+ * @created 1/12/16
+ *
+ * Storage for the buckets of one TimeInterval, such as all the hours or all the days. Buckets are
+ * only ever added to the end, and are referred to by their position in the store, with 1 being the
+ * first bucket. Each bucket has the wall clock time it started at and the amount of screen wakes in
+ * it. The rollup logic in ScreenCountDatabase only works through this interface, so the buckets can
+ * be kept in SQLite, in memory, or in a memory mapped file.
+ */
+public interface CountStore {
+    /**
+     * Adds a bucket to the end of the store.
+     *
+     * @param start The wall clock time in milliseconds at which the bucket started.
+     * @param count The amount of screen wakes in the bucket.
+     */
+    void append(long start, int count);
+
+    /**
+     * Removes all of the buckets from the store. The start time of the last bucket is still kept.
+     */
+    void clear();
+
+    /**
+     * @return The amount of buckets in the store.
+     */
+    int size();
+
+    /**
+     * @return The start time of the last bucket that was added, even if the store has been cleared
+     *         since, or 0 if no bucket has ever been added.
+     */
+    long getLastStart();
+
+    /**
+     * Gets the start time of the bucket at the given position.
+     *
+     * @param seq The position of the bucket, from 1 to size.
+     * @return The wall clock time in milliseconds at which the bucket started.
+     */
+    long getStart(int seq);
+
+    /**
+     * Reads the counts of the buckets at positions from start to end inclusive.
+     *
+     * @param start The position of the first bucket.
+     * @param end The position of the last bucket.
+     * @return The counts of the buckets in order, which is empty if end is before start.
+     */
+    int[] read(int start, int end);
+
+    /**
+     * Sums the counts of the buckets at positions from start to end inclusive.
+     *
+     * @param start The position of the first bucket.
+     * @param end The position of the last bucket.
+     * @return The sum of the counts, or 0 if end is before start.
+     */
+    int sum(int start, int end);
+
+    /**
+     * Computes the sum, count, min and max of the buckets at positions from start to end inclusive.
+     *
+     * @param start The position of the first bucket.
+     * @param end The position of the last bucket.
+     * @return The aggregate of the buckets in the range.
+     */
+    IntervalAggregate aggregate(int start, int end);
+
+    /**
+     * Moves the buckets that started before the given time into compressed storage, if the store
+     * has any. The buckets keep their positions and can still be read the same way.
+     *
+     * @param before The wall clock time in milliseconds before which buckets may be compacted.
+     */
+    void compact(long before);
+
+    /**
+     * Releases any resources held by the store. The store can not be used afterwards.
+     */
+    void close();
+}
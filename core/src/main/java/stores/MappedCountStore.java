@@ -0,0 +1,197 @@
+package stores;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import models.IntervalAggregate;
+
+/**
+ * @author Matias Grioni
+ * @created 1/12/16
+ *
+ * A CountStore kept in a binary file of fixed width records that is mapped into memory. Appending a
+ * bucket or reading a range is only a few reads and writes into the mapped buffer, so there is no
+ * statement to parse and nothing is copied through a cursor. The operating system writes the dirty
+ * pages back to the file, and the file is forced to disk when the store is closed.
+ *
+ * The file starts with a header of a magic number, the size, and the last start time. Then each
+ * record is the start time, the count, and the running total of the counts up to the record. The
+ * mapping is doubled whenever it is full.
+ */
+public class MappedCountStore implements CountStore {
+    private static final int MAGIC = 0x53574331;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int SIZE_OFFSET = 4;
+    private static final int LAST_START_OFFSET = 8;
+    private static final int HEADER_SIZE = 16;
+
+    private static final int START_OFFSET = 0;
+    private static final int COUNT_OFFSET = 8;
+    private static final int CUMULATIVE_OFFSET = 12;
+    private static final int RECORD_SIZE = 20;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+
+    private int size;
+    private long lastStart;
+
+    /**
+     * Opens the store in the given file, creating the file if it does not exist yet.
+     *
+     * @param path The file to keep the store in.
+     * @throws IOException If the file can not be opened or mapped, or is not a store.
+     */
+    public MappedCountStore(File path) throws IOException {
+        file = new RandomAccessFile(path, "rw");
+        channel = file.getChannel();
+
+        boolean created = channel.size() < HEADER_SIZE;
+        capacity = Math.max(INITIAL_CAPACITY, (int) ((channel.size() - HEADER_SIZE) / RECORD_SIZE));
+        map();
+
+        if(created) {
+            buffer.putInt(MAGIC_OFFSET, MAGIC);
+            writeHeader();
+        } else if(buffer.getInt(MAGIC_OFFSET) != MAGIC) {
+            close();
+            throw new IOException(path + " is not a count store.");
+        } else {
+            size = buffer.getInt(SIZE_OFFSET);
+            lastStart = buffer.getLong(LAST_START_OFFSET);
+        }
+    }
+
+    @Override
+    public void append(long start, int count) {
+        if(size == capacity) {
+            capacity *= 2;
+
+            try {
+                map();
+            } catch(IOException ex) {
+                throw new IllegalStateException("Unable to grow the count store.", ex);
+            }
+        }
+
+        int record = recordOffset(size + 1);
+        buffer.putLong(record + START_OFFSET, start);
+        buffer.putInt(record + COUNT_OFFSET, count);
+        buffer.putLong(record + CUMULATIVE_OFFSET, cumulative(size) + count);
+
+        size++;
+        lastStart = start;
+        writeHeader();
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        writeHeader();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long getLastStart() {
+        return lastStart;
+    }
+
+    @Override
+    public long getStart(int seq) {
+        return buffer.getLong(recordOffset(seq) + START_OFFSET);
+    }
+
+    @Override
+    public int[] read(int start, int end) {
+        if(end < start)
+            return new int[0];
+
+        int[] counts = new int[end - start + 1];
+        for(int i = 0; i < counts.length; i++)
+            counts[i] = buffer.getInt(recordOffset(start + i) + COUNT_OFFSET);
+
+        return counts;
+    }
+
+    @Override
+    public int sum(int start, int end) {
+        if(end < start)
+            return 0;
+
+        return (int) (cumulative(end) - cumulative(start - 1));
+    }
+
+    @Override
+    public IntervalAggregate aggregate(int start, int end) {
+        return StoreUtils.aggregate(read(start, end));
+    }
+
+    @Override
+    public void compact(long before) {
+        // The records are read in place from the mapping, so they are left at their fixed width.
+    }
+
+    @Override
+    public void close() {
+        try {
+            buffer.force();
+            channel.close();
+            file.close();
+        } catch(IOException ex) {
+            throw new IllegalStateException("Unable to close the count store.", ex);
+        }
+    }
+
+    /**
+     * Maps the header and capacity records of the file into memory, growing the file if needed.
+     *
+     * @throws IOException If the file can not be mapped.
+     */
+    private void map() throws IOException {
+        long length = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+    }
+
+    /**
+     * Writes the size and last start time into the header of the file.
+     */
+    private void writeHeader() {
+        buffer.putInt(SIZE_OFFSET, size);
+        buffer.putLong(LAST_START_OFFSET, lastStart);
+    }
+
+    /**
+     * Gets the running total at the record at the given position.
+     *
+     * @param seq The position of the record, from 0 to size.
+     * @return The running total at the record, or 0 for the position 0 before the first record.
+     */
+    private long cumulative(int seq) {
+        if(seq == 0)
+            return 0;
+
+        return buffer.getLong(recordOffset(seq) + CUMULATIVE_OFFSET);
+    }
+
+    /**
+     * Gives the offset in the file of the record at the given position.
+     *
+     * @param seq The position of the record, with 1 being the first record.
+     * @return The offset of the first byte of the record.
+     */
+    private int recordOffset(int seq) {
+        return HEADER_SIZE + (seq - 1) * RECORD_SIZE;
+    }
+}
@@ -0,0 +1,97 @@
+package stores;
+
+import java.util.Arrays;
+
+import models.IntervalAggregate;
+
+/**
+ * @author Matias Grioni
+ * @created 1/12/16
+ *
+ * A CountStore that only keeps its buckets in memory, in primitive arrays that grow as needed. The
+ * running total of the counts is kept along with each bucket so any range can be summed from its
+ * two ends. Nothing is persisted, so it is meant for benchmarks and for data that can be rebuilt.
+ */
+public class MemoryCountStore implements CountStore {
+    private static final int INITIAL_CAPACITY = 32;
+
+    private long[] starts;
+    private int[] counts;
+    private long[] cumulative;
+
+    private int size;
+    private long lastStart;
+
+    public MemoryCountStore() {
+        starts = new long[INITIAL_CAPACITY];
+        counts = new int[INITIAL_CAPACITY];
+        cumulative = new long[INITIAL_CAPACITY];
+    }
+
+    @Override
+    public void append(long start, int count) {
+        if(size == counts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+            cumulative = Arrays.copyOf(cumulative, size * 2);
+        }
+
+        starts[size] = start;
+        counts[size] = count;
+        cumulative[size] = (size == 0 ? 0 : cumulative[size - 1]) + count;
+
+        size++;
+        lastStart = start;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long getLastStart() {
+        return lastStart;
+    }
+
+    @Override
+    public long getStart(int seq) {
+        return starts[seq - 1];
+    }
+
+    @Override
+    public int[] read(int start, int end) {
+        if(end < start)
+            return new int[0];
+
+        return Arrays.copyOfRange(counts, start - 1, end);
+    }
+
+    @Override
+    public int sum(int start, int end) {
+        if(end < start)
+            return 0;
+
+        long before = start > 1 ? cumulative[start - 2] : 0;
+        return (int) (cumulative[end - 1] - before);
+    }
+
+    @Override
+    public IntervalAggregate aggregate(int start, int end) {
+        return StoreUtils.aggregate(read(start, end));
+    }
+
+    @Override
+    public void compact(long before) {
+        // Nothing is persisted, so there is nothing to compact.
+    }
+
+    @Override
+    public void close() {
+    }
+}
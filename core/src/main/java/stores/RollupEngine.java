@@ -0,0 +1,232 @@
+package stores;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Matias Grioni
+ * @created 1/13/16
+ *
+ * Computes coarse buckets from the finest buckets when they are asked for, rather than writing every
+ * coarse bucket as soon as it is finished. Only the finest store is written to when a bucket is
+ * added. Every other level is defined by the level it is made of and how many of those buckets make
+ * up one of its own, and its store is only a memo of its finished buckets, filled in order by
+ * memoize. A new level can be added without having to backfill anything.
+ *
+ * Levels are referred to by the order they were added in, with the finest level being 0. Buckets
+ * are referred to by their position in their level, with 1 being the first bucket.
+ *
+ * A memo can have buckets from before its parent level was kept in detail, such as days from before
+ * every hour was kept. These leading buckets are only ever read from the memo, and the buckets after
+ * them are made from the parent level starting at its first bucket.
+ */
+public class RollupEngine {
+    private List<CountStore> stores = new ArrayList<>();
+    private List<Integer> parents = new ArrayList<>();
+    private List<Integer> ratios = new ArrayList<>();
+    private List<Integer> bases = new ArrayList<>();
+
+    /**
+     * Creates an engine over the finest buckets.
+     *
+     * @param finest The store that every bucket is added to.
+     */
+    public RollupEngine(CountStore finest) {
+        stores.add(finest);
+        parents.add(-1);
+        ratios.add(1);
+        bases.add(0);
+    }
+
+    /**
+     * Adds a coarser level made of buckets of an existing level.
+     *
+     * @param memo The store to memoize the finished buckets of the level in.
+     * @param parent The level that the buckets of the new level are made of.
+     * @param ratio The amount of parent buckets in one bucket of the new level.
+     * @return The new level.
+     */
+    public int addLevel(CountStore memo, int parent, int ratio) {
+        stores.add(memo);
+        parents.add(parent);
+        ratios.add(ratio);
+        bases.add(findBase(memo, parent));
+
+        return stores.size() - 1;
+    }
+
+    /**
+     * Adds a bucket to the end of the finest level.
+     *
+     * @param start The wall clock time in milliseconds at which the bucket started.
+     * @param count The amount of screen wakes in the bucket.
+     */
+    public void append(long start, int count) {
+        stores.get(0).append(start, count);
+    }
+
+    /**
+     * @param level The level to get the size of.
+     * @return The amount of finished buckets in the level.
+     */
+    public int size(int level) {
+        if(level == 0)
+            return stores.get(0).size();
+
+        return bases.get(level) + size(parents.get(level)) / ratios.get(level);
+    }
+
+    /**
+     * @param level The level to check.
+     * @return The amount of leading buckets in the memo of the level, which can not be made from
+     *         its parent level. Always 0 for the finest level.
+     */
+    public int baseSize(int level) {
+        return bases.get(level);
+    }
+
+    /**
+     * @param level The level to check.
+     * @return The amount of buckets of the level already held in its memo.
+     */
+    public int memoized(int level) {
+        return stores.get(level).size();
+    }
+
+    /**
+     * Gets the amount of finished parent buckets that are not yet part of a finished bucket of the
+     * level, which together make up the level's current bucket.
+     *
+     * @param level A level other than the finest.
+     * @return The amount of parent buckets in the current bucket.
+     */
+    public int partialSize(int level) {
+        return size(parents.get(level)) % ratios.get(level);
+    }
+
+    /**
+     * Gets the start time of a finished bucket.
+     *
+     * @param level The level of the bucket.
+     * @param seq The position of the bucket in its level.
+     * @return The wall clock time in milliseconds at which the bucket started.
+     */
+    public long getStart(int level, int seq) {
+        CountStore store = stores.get(level);
+        if(level == 0 || seq <= store.size())
+            return store.getStart(seq);
+
+        return getStart(parents.get(level), firstParent(level, seq));
+    }
+
+    /**
+     * Sums the finished buckets of a level at positions from start to end inclusive. The memoized
+     * part of the range is summed by the memo and the rest is summed by the parent level as one
+     * range, so the cost does not grow with the length of the range.
+     *
+     * @param level The level to sum.
+     * @param start The position of the first bucket.
+     * @param end The position of the last bucket.
+     * @return The sum of the buckets in the range, or 0 if end is before start.
+     */
+    public int sum(int level, int start, int end) {
+        if(end < start)
+            return 0;
+
+        CountStore store = stores.get(level);
+        if(level == 0)
+            return store.sum(start, end);
+
+        int memoEnd = Math.min(end, store.size());
+        int sum = store.sum(start, memoEnd);
+
+        int rest = Math.max(start, memoEnd + 1);
+        if(rest <= end)
+            sum += sum(parents.get(level), firstParent(level, rest), firstParent(level, end + 1) - 1);
+
+        return sum;
+    }
+
+    /**
+     * Reads the finished buckets of a level at positions from start to end inclusive. The buckets
+     * that are not memoized yet are computed but not written, so memoize should be called first if
+     * the range will be read again.
+     *
+     * @param level The level to read.
+     * @param start The position of the first bucket.
+     * @param end The position of the last bucket.
+     * @return The counts of the buckets in order, which is empty if end is before start.
+     */
+    public int[] read(int level, int start, int end) {
+        CountStore store = stores.get(level);
+        if(level == 0 || end <= store.size())
+            return store.read(start, end);
+
+        int[] counts = new int[Math.max(0, end - start + 1)];
+        int memoEnd = Math.min(end, store.size());
+        int[] memo = store.read(start, memoEnd);
+        System.arraycopy(memo, 0, counts, 0, memo.length);
+
+        for(int seq = Math.max(start, memoEnd + 1); seq <= end; seq++)
+            counts[seq - start] = sum(level, seq, seq);
+
+        return counts;
+    }
+
+    /**
+     * Writes every finished bucket of the level up to end into its memo, in order. The caller
+     * decides whether this is one transaction.
+     *
+     * @param level The level to memoize.
+     * @param end The position of the last bucket to memoize, which is capped at the size.
+     */
+    public void memoize(int level, int end) {
+        if(level == 0)
+            return;
+
+        CountStore store = stores.get(level);
+        end = Math.min(end, size(level));
+        for(int seq = store.size() + 1; seq <= end; seq++)
+            store.append(getStart(level, seq), sum(level, seq, seq));
+    }
+
+    /**
+     * Gives the position in the parent level of the first bucket that makes up a bucket of the level.
+     * The bucket must be after the leading buckets of the memo.
+     *
+     * @param level The level of the bucket.
+     * @param seq The position of the bucket in its level.
+     * @return The position of the first parent bucket.
+     */
+    private int firstParent(int level, int seq) {
+        return (seq - bases.get(level) - 1) * ratios.get(level) + 1;
+    }
+
+    /**
+     * Counts the leading buckets of a memo that started before the first bucket of the parent level,
+     * which are the buckets that can not be made from the parent level.
+     *
+     * @param memo The memo of the new level.
+     * @param parent The parent level of the new level.
+     * @return The amount of leading buckets in the memo.
+     */
+    private int findBase(CountStore memo, int parent) {
+        if(size(parent) == 0)
+            return memo.size();
+
+        // The start times in the memo keep increasing, so the leading buckets are found by a binary
+        // search for the first parent bucket's start time.
+        long parentStart = getStart(parent, 1);
+        int low = 0;
+        int high = memo.size();
+        while(low < high) {
+            int mid = (low + high) / 2;
+            if(memo.getStart(mid + 1) < parentStart)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+
+        return low;
+    }
+}
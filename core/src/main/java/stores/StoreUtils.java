@@ -0,0 +1,51 @@
+package stores;
+
+import models.IntervalAggregate;
+
+/**
+ * @author Matias Grioni
+ * @created 1/12/16
+ *
+ * Helpers shared by the CountStore implementations.
+ */
+public class StoreUtils {
+    /**
+     * Computes the aggregate of a range of counts that were already read out of a store.
+     *
+     * @param counts The counts in the range.
+     * @return The sum, count, min, and max of the counts. The min and max are 0 if there are no
+     *         counts.
+     */
+    public static IntervalAggregate aggregate(int[] counts) {
+        if(counts.length == 0)
+            return new IntervalAggregate(0, 0, 0, 0);
+
+        int sum = 0;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for(int count : counts) {
+            sum += count;
+            min = Math.min(min, count);
+            max = Math.max(max, count);
+        }
+
+        return new IntervalAggregate(sum, counts.length, min, max);
+    }
+
+    /**
+     * Combines the aggregates of two ranges into the aggregate of both.
+     *
+     * @param first The aggregate of the first range.
+     * @param second The aggregate of the second range.
+     * @return The aggregate of both ranges. The min and max are 0 if both ranges are empty.
+     */
+    public static IntervalAggregate merge(IntervalAggregate first, IntervalAggregate second) {
+        if(first.count == 0)
+            return second;
+        else if(second.count == 0)
+            return first;
+
+        return new IntervalAggregate(first.sum + second.sum, first.count + second.count,
+                Math.min(first.min, second.min), Math.max(first.max, second.max));
+    }
+}
@@ -0,0 +1,495 @@
+package stores;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import models.CountMetric;
+
+/**
+ * @author Matias Grioni
+ * @created 1/23/16
+ *
+ * An append only log of the wall clock time of every screen wake, kept in a file. Wakes are put in
+ * a ring buffer of longs, which costs a couple of array and volatile writes and never allocates,
+ * and the buffer is written to the file in batches. Between the batches the log also records the
+ * end of every hour that was written to the counts as a negative time, so the wakes after the last
+ * written hour can be recovered after the process dies, and the hours can be rebuilt from the log.
+ * At most the last unflushed batch is lost.
+ *
+ * Besides the wakes, the log has the screen being turned off and unlocked, so the time the screen
+ * was on and the unlocks can be rebuilt the same way. The kind of each entry is kept in the bits
+ * above its time, which leaves the wakes logged before there were other kinds as they were.
+ *
+ * Wakes must only be appended from one thread, and the log must only be flushed, trimmed and read
+ * from one other thread.
+ */
+public class WakeLog implements Closeable {
+    public static final int WAKE = 0;
+    public static final int SCREEN_OFF = 1;
+    public static final int UNLOCK = 2;
+
+    private static final int TIME_BITS = 48;
+    private static final long TIME_MASK = (1L << TIME_BITS) - 1;
+
+    // How many entries are read at a time when the file is read from the end backwards.
+    private static final int SCAN_ENTRIES = 512;
+
+    private final File file;
+    private final int batchSize;
+    private final long flushInterval;
+
+    // A single producer, single consumer ring. The producer only moves head and the consumer only
+    // moves tail.
+    private final long[] ring;
+    private final int mask;
+    private volatile long head;
+    private volatile long tail;
+    private volatile long lastFlush;
+
+    private byte[] buffer;
+    private FileOutputStream out;
+
+    private long lastBoundary;
+
+    /**
+     * Creates the log without touching the file. The file is read and opened by open.
+     *
+     * @param file The file the log is kept in.
+     * @param capacity The most wakes that can wait to be flushed. Rounded up to a power of 2.
+     * @param batchSize How many waiting wakes make append ask for a flush.
+     * @param flushInterval How many milliseconds after the last flush append asks for a flush.
+     */
+    public WakeLog(File file, int capacity, int batchSize, long flushInterval) {
+        this.file = file;
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        ring = new long[size];
+        mask = size - 1;
+        buffer = new byte[(size + 1) * 8];
+    }
+
+    /**
+     * Reads the end of the file to find the end of the last written hour, and opens the file for
+     * appending.
+     *
+     * @throws IOException If the file can not be read or opened.
+     */
+    public void open() throws IOException {
+        lastBoundary = 0;
+
+        if(file.exists()) {
+            // A write cut short by the process dying leaves part of an entry at the end, which
+            // would throw off every entry appended after it.
+            if(file.length() % 8 != 0) {
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    raf.setLength(file.length() - file.length() % 8);
+                } finally {
+                    raf.close();
+                }
+            }
+
+            long position = findLast(file.length(), true, 0);
+            if(position >= 0)
+                lastBoundary = -readLong(position);
+        }
+
+        out = new FileOutputStream(file, true);
+        lastFlush = System.currentTimeMillis();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * @return The wall clock time the last written hour ended at when the log was opened, or 0 if
+     *         no hour was ever written.
+     */
+    public long getLastBoundary() {
+        return lastBoundary;
+    }
+
+    /**
+     * Gives the time of the last entry appended since the log was opened, whether or not it was
+     * flushed yet. Can be called from any thread.
+     *
+     * @return The wall clock time of the last entry in milliseconds, or 0 if there is none.
+     */
+    public long getLastTime() {
+        long h = head;
+        if(h == 0)
+            return 0;
+
+        return ring[(int) (h - 1) & mask] & TIME_MASK;
+    }
+
+    /**
+     * Gives how many entries have been put in the ring buffer since the log was made, which marks
+     * where the log is up to for replay. Can be called from any thread.
+     *
+     * @return The amount of appended entries.
+     */
+    public long getAppended() {
+        return head;
+    }
+
+    /**
+     * Puts a wake in the ring buffer. If the buffer is full, because the log has not been flushed
+     * in a long time, the wake is left out of the log.
+     *
+     * @param time The wall clock time of the wake in milliseconds.
+     * @return True if the log should be flushed.
+     */
+    public boolean append(long time) {
+        return append(time, WAKE);
+    }
+
+    /**
+     * Puts an entry of the given kind in the ring buffer, the same way as a wake.
+     *
+     * @param time The wall clock time of the entry in milliseconds.
+     * @param kind WAKE, SCREEN_OFF or UNLOCK.
+     * @return True if the log should be flushed.
+     */
+    public boolean append(long time, int kind) {
+        long h = head;
+        if(h - tail == ring.length)
+            return true;
+
+        ring[(int) h & mask] = ((long) kind << TIME_BITS) | time;
+        head = h + 1;
+
+        return h + 1 - tail >= batchSize || time - lastFlush >= flushInterval;
+    }
+
+    /**
+     * Writes the waiting wakes to the file.
+     *
+     * @throws IOException If the file can not be written.
+     */
+    public void flush() throws IOException {
+        write(0);
+    }
+
+    /**
+     * Writes the waiting wakes to the file, followed by the end of the hour they finish.
+     *
+     * @param end The wall clock time in milliseconds at which the hour ended.
+     * @throws IOException If the file can not be written.
+     */
+    public void flushHour(long end) throws IOException {
+        write(end);
+    }
+
+    /**
+     * Rebuilds every CountMetric of consecutive buckets from the entries in the file. A wake starts
+     * a session and a screen off ends it, which counts the session in the bucket it ended in and
+     * splits its time between the buckets it overlaps. A wake during a session means its screen off
+     * was missed, and the session starts over from the wake.
+     *
+     * @param firstStart The wall clock time in milliseconds at which the first bucket starts.
+     * @param bucketMillis The length of each bucket in milliseconds.
+     * @param buckets The amount of buckets.
+     * @param end The wall clock time in milliseconds up to which a session that has not ended yet
+     *            is counted.
+     * @return The buckets of each metric indexed by the CountMetric ordinal, with ScreenOn in
+     *         milliseconds.
+     * @throws IOException If the file can not be read.
+     */
+    public int[][] replay(long firstStart, long bucketMillis, int buckets, long end)
+            throws IOException {
+        return replay(firstStart, bucketMillis, buckets, end, Long.MAX_VALUE);
+    }
+
+    /**
+     * Rebuilds every CountMetric the same way, from only the entries that were appended before a
+     * mark from getAppended. The entries appended since the mark are left out even if they were
+     * flushed, as long as no hour end was flushed after them.
+     *
+     * Only the entries from the last wake or screen off before the first bucket onwards are read,
+     * which is enough to know whether a session was going on when the first bucket started, so a
+     * replay of the last hours does not read the whole log.
+     *
+     * @param firstStart The wall clock time in milliseconds at which the first bucket starts.
+     * @param bucketMillis The length of each bucket in milliseconds.
+     * @param buckets The amount of buckets.
+     * @param end The wall clock time in milliseconds up to which a session that has not ended yet
+     *            is counted.
+     * @param appended The amount of appended entries to read up to, as given by getAppended.
+     * @return The buckets of each metric indexed by the CountMetric ordinal, with ScreenOn in
+     *         milliseconds.
+     * @throws IOException If the file can not be read.
+     */
+    public int[][] replay(long firstStart, long bucketMillis, int buckets, long end,
+                          long appended) throws IOException {
+        int[][] counts = new int[CountMetric.values().length][buckets];
+        if(!file.exists())
+            return counts;
+
+        // The entries flushed since the mark are the last ones in the file.
+        long stop = file.length();
+        if(appended < tail)
+            stop = Math.max(0, stop - (tail - appended) * 8);
+
+        long from = Math.max(0, findLast(stop, false, firstStart));
+
+        long onSince = 0;
+        DataInputStream in = openInput(from);
+        try {
+            for(long position = from; position < stop; position += 8) {
+                long entry = in.readLong();
+                if(entry < 0)
+                    continue;
+
+                int kind = (int) (entry >>> TIME_BITS);
+                long time = entry & TIME_MASK;
+                if(kind == WAKE) {
+                    onSince = time;
+                    count(counts[CountMetric.Wakes.ordinal()], firstStart, bucketMillis, time);
+                } else if(kind == UNLOCK) {
+                    count(counts[CountMetric.Unlocks.ordinal()], firstStart, bucketMillis, time);
+                } else if(kind == SCREEN_OFF && onSince != 0) {
+                    addTime(counts[CountMetric.ScreenOn.ordinal()], firstStart, bucketMillis,
+                            onSince, time);
+                    count(counts[CountMetric.Sessions.ordinal()], firstStart, bucketMillis, time);
+                    onSince = 0;
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        if(onSince != 0)
+            addTime(counts[CountMetric.ScreenOn.ordinal()], firstStart, bucketMillis, onSince, end);
+
+        return counts;
+    }
+
+    /**
+     * Drops the wakes and hour ends before the given time by rewriting the file. The waiting
+     * wakes are flushed first. The file is opened for appending again even if the rewrite fails, in
+     * which case the file is left as it was.
+     *
+     * @param before The wall clock time in milliseconds before which entries are dropped.
+     * @throws IOException If the file can not be rewritten.
+     */
+    public void trim(long before) throws IOException {
+        flush();
+        close();
+
+        File trimmed = new File(file.getPath() + ".trim");
+        boolean replaced = false;
+        try {
+            DataInputStream in = openInput(0);
+            try {
+                DataOutputStream trimmedOut = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(trimmed)));
+                try {
+                    while(true) {
+                        long entry = in.readLong();
+                        long time = entry < 0 ? -entry : entry & TIME_MASK;
+                        if(time >= before)
+                            trimmedOut.writeLong(entry);
+                    }
+                } catch(EOFException ex) {
+                    // The whole log was copied.
+                } finally {
+                    trimmedOut.close();
+                }
+            } finally {
+                in.close();
+            }
+
+            if(!trimmed.renameTo(file))
+                throw new IOException("Unable to replace " + file);
+            replaced = true;
+        } finally {
+            if(!replaced)
+                trimmed.delete();
+
+            out = new FileOutputStream(file, true);
+        }
+    }
+
+    /**
+     * Writes the waiting wakes and possibly an hour end to the file in one write.
+     *
+     * @param end The end of the hour to write after the wakes, or 0 for none.
+     * @throws IOException If the file can not be written.
+     */
+    private void write(long end) throws IOException {
+        if(out == null)
+            throw new IOException(file + " is not open");
+
+        long t = tail;
+        long h = head;
+
+        int length = 0;
+        for(long i = t; i < h; i++)
+            length = putLong(ring[(int) i & mask], length);
+        if(end > 0)
+            length = putLong(-end, length);
+
+        if(length > 0)
+            out.write(buffer, 0, length);
+
+        tail = h;
+        lastFlush = System.currentTimeMillis();
+    }
+
+    /**
+     * Finds the last hour end, or the last wake or screen off before a time, in the file before a
+     * position. The file is read backwards a block at a time, so usually only its end is read no
+     * matter how long the log has grown.
+     *
+     * @param stop The position in the file to look before.
+     * @param hourEnd True to find an hour end, false to find a wake or screen off.
+     * @param before The wall clock time in milliseconds that the wake or screen off is before.
+     * @return The position of the entry in the file, or -1 if there is none.
+     * @throws IOException If the file can not be read.
+     */
+    private long findLast(long stop, boolean hourEnd, long before) throws IOException {
+        byte[] block = new byte[SCAN_ENTRIES * 8];
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long position = stop;
+            while(position > 0) {
+                int length = (int) Math.min(block.length, position);
+                position -= length;
+                raf.seek(position);
+                raf.readFully(block, 0, length);
+
+                for(int i = length - 8; i >= 0; i -= 8) {
+                    long entry = getLong(block, i);
+                    int kind = (int) (entry >>> TIME_BITS);
+
+                    if(hourEnd ? entry < 0 : entry >= 0 && kind != UNLOCK
+                            && (entry & TIME_MASK) < before)
+                        return position + i;
+                }
+            }
+        } finally {
+            raf.close();
+        }
+
+        return -1;
+    }
+
+    /**
+     * @param position The position of an entry in the file.
+     * @return The entry.
+     * @throws IOException If the file can not be read.
+     */
+    private long readLong(long position) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek(position);
+            return raf.readLong();
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Counts a time in the bucket it falls in, if it falls in any.
+     *
+     * @param buckets The counts of the buckets.
+     * @param firstStart The wall clock time in milliseconds at which the first bucket starts.
+     * @param bucketMillis The length of each bucket in milliseconds.
+     * @param time The wall clock time in milliseconds to count.
+     */
+    private static void count(int[] buckets, long firstStart, long bucketMillis, long time) {
+        if(time < firstStart)
+            return;
+
+        long bucket = (time - firstStart) / bucketMillis;
+        if(bucket < buckets.length)
+            buckets[(int) bucket]++;
+    }
+
+    /**
+     * Adds the milliseconds of a span of time to the buckets it overlaps.
+     *
+     * @param buckets The milliseconds of the buckets.
+     * @param firstStart The wall clock time in milliseconds at which the first bucket starts.
+     * @param bucketMillis The length of each bucket in milliseconds.
+     * @param from The wall clock time in milliseconds at which the span starts.
+     * @param to The wall clock time in milliseconds at which the span ends.
+     */
+    private static void addTime(int[] buckets, long firstStart, long bucketMillis, long from,
+                                long to) {
+        long start = Math.max(from, firstStart);
+        long stop = Math.min(to, firstStart + buckets.length * bucketMillis);
+
+        while(start < stop) {
+            int bucket = (int) ((start - firstStart) / bucketMillis);
+            long until = Math.min(stop, firstStart + (bucket + 1) * bucketMillis);
+
+            buckets[bucket] += (int) (until - start);
+            start = until;
+        }
+    }
+
+    /**
+     * Puts a long in the write buffer in big endian order.
+     *
+     * @param value The value to put.
+     * @param position Where in the buffer to put it.
+     * @return The position after the value.
+     */
+    private int putLong(long value, int position) {
+        for(int shift = 56; shift >= 0; shift -= 8)
+            buffer[position++] = (byte) (value >>> shift);
+
+        return position;
+    }
+
+    /**
+     * Reads a long out of a block read from the file, in big endian order.
+     *
+     * @param block The bytes read from the file.
+     * @param position Where in the block the long is.
+     * @return The long.
+     */
+    private static long getLong(byte[] block, int position) {
+        long value = 0;
+        for(int i = 0; i < 8; i++)
+            value = (value << 8) | (block[position + i] & 0xff);
+
+        return value;
+    }
+
+    /**
+     * @param position The position in the file to start reading from.
+     * @return A buffered stream over the file.
+     * @throws IOException If the file can not be opened.
+     */
+    private DataInputStream openInput(long position) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            in.getChannel().position(position);
+        } catch(IOException ex) {
+            in.close();
+            throw ex;
+        }
+
+        return new DataInputStream(new BufferedInputStream(in));
+    }
+}
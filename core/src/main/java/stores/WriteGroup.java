@@ -0,0 +1,24 @@
+package stores;
+
+/**
+ * @author Matias Grioni
+ * @created 1/15/16
+ *
+ * Groups the changes that a CountEngine makes to its stores, such as the hour and the memoized
+ * buckets that go with it, so that they are committed together. For stores backed by a database
+ * this is a transaction.
+ */
+public interface WriteGroup {
+    /**
+     * Starts a group of changes to the stores.
+     */
+    void begin();
+
+    /**
+     * Finishes the group of changes started by begin.
+     *
+     * @param committed True if all of the changes went through, or false if they should be rolled
+     *                  back.
+     */
+    void end(boolean committed);
+}
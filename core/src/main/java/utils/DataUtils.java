@@ -0,0 +1,77 @@
+package utils;
+
+import models.IntSeries;
+
+/**
+ * @author Matias Grioni
+ * @created 1/1/16
+ *
+ * Data computational utility functions. These work on an IntSeries so the entries are never boxed.
+ */
+public class DataUtils {
+    /**
+     * Sums all terms in the data set.
+     *
+     * @param data The data set.
+     * @return The sum of the terms in the data set.
+     */
+    public static int sum(IntSeries data) {
+        int sum = 0;
+
+        int end = data.offset + data.length;
+        for(int i = data.offset; i < end; i++) {
+            sum += data.values[i];
+        }
+
+        return sum;
+    }
+
+    /**
+     * Computes the average for the given data set.
+     *
+     * @param data The data set.
+     * @return The average of the data set.
+     */
+    public static double average(IntSeries data) {
+        return (double) sum(data) / data.length;
+    }
+
+    /**
+     * Computes the standard deviation for the given data set.
+     *
+     * @param data The data set.
+     * @return The standard deviation of the data set.
+     */
+    public static double stdev(IntSeries data) {
+        double average = average(data);
+
+        double sqsum = 0;
+        int end = data.offset + data.length;
+        for(int i = data.offset; i < end; i++) {
+            double diff = data.values[i] - average;
+
+            sqsum += diff * diff;
+        }
+
+        return Math.sqrt(sqsum / data.length);
+    }
+
+    /**
+     * Finds the maximum item in an {@code IntSeries}. If an empty series is given then
+     * {@code Integer.MIN_VALUE} is returned.
+     *
+     * @param data The {@code IntSeries} to search through.
+     * @return The maximum item in the provided {@code IntSeries}.
+     */
+    public static int max(IntSeries data) {
+        int max = Integer.MIN_VALUE;
+
+        int end = data.offset + data.length;
+        for(int i = data.offset; i < end; i++) {
+            if (data.values[i] > max)
+                max = data.values[i];
+        }
+
+        return max;
+    }
+}
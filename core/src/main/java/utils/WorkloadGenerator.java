@@ -0,0 +1,109 @@
+package utils;
+
+import java.util.Calendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * @author Matias Grioni
+ * @created 1/17/16
+ *
+ * Makes up screen wake counts for every hour of a long history that look like those of a real
+ * phone. The counts follow a daily curve that is low overnight and peaks in the morning and
+ * evening, weekends start later and are a little busier, every day is a little busier or quieter
+ * than the last, and now and then an hour has a burst of wakes. The same seed and time zone always
+ * give the same counts, so benchmarks and tests can rebuild the same history.
+ */
+public class WorkloadGenerator {
+    // The expected amount of wakes in each hour of a weekday, starting from midnight.
+    private static final double[] WEEKDAY_RATES = { 0.3, 0.2, 0.1, 0.1, 0.1, 0.3, 2, 8, 10, 7, 6,
+            6, 8, 6, 6, 6, 7, 8, 9, 10, 11, 10, 6, 2 };
+
+    // Weekends follow the weekday curve a couple of hours later, with somewhat more wakes.
+    private static final int WEEKEND_SHIFT = 2;
+    private static final double WEEKEND_FACTOR = 1.2;
+
+    // How much busier or quieter a day can be than the curve, and how often an hour is a burst of
+    // up to BURST_FACTOR times its usual wakes.
+    private static final double DAY_VARIATION = 0.3;
+    private static final double BURST_CHANCE = 0.04;
+    private static final double BURST_FACTOR = 4;
+
+    private Random random;
+    private Calendar calendar;
+
+    /**
+     * Creates a generator in the UTC time zone.
+     *
+     * @param seed The seed of the counts.
+     */
+    public WorkloadGenerator(long seed) {
+        this(seed, TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * Creates a generator whose days and weekends are those of the given time zone.
+     *
+     * @param seed The seed of the counts.
+     * @param zone The time zone the history takes place in.
+     */
+    public WorkloadGenerator(long seed, TimeZone zone) {
+        random = new Random(seed);
+        calendar = Calendar.getInstance(zone);
+    }
+
+    /**
+     * Makes up the counts of consecutive hours.
+     *
+     * @param firstStart The wall clock time in milliseconds at which the first hour starts.
+     * @param hours The amount of hours.
+     * @return The count of each hour in order.
+     */
+    public int[] generate(long firstStart, int hours) {
+        int[] counts = new int[hours];
+        double dayFactor = 1;
+
+        for(int i = 0; i < hours; i++) {
+            calendar.setTimeInMillis(firstStart + i * 60L * 60 * 1000);
+            int hour = calendar.get(Calendar.HOUR_OF_DAY);
+            int day = calendar.get(Calendar.DAY_OF_WEEK);
+
+            if(i == 0 || hour == 0)
+                dayFactor = 1 + DAY_VARIATION * (2 * random.nextDouble() - 1);
+
+            double rate;
+            if(day == Calendar.SATURDAY || day == Calendar.SUNDAY)
+                rate = WEEKDAY_RATES[(hour - WEEKEND_SHIFT + 24) % 24] * WEEKEND_FACTOR;
+            else
+                rate = WEEKDAY_RATES[hour];
+
+            rate *= dayFactor;
+            if(random.nextDouble() < BURST_CHANCE)
+                rate *= 1 + random.nextDouble() * (BURST_FACTOR - 1);
+
+            counts[i] = poisson(rate);
+        }
+
+        return counts;
+    }
+
+    /**
+     * Draws from a Poisson distribution by multiplying uniform draws until they fall below e to the
+     * minus mean. This is fine for the small means of a single hour.
+     *
+     * @param mean The mean of the distribution.
+     * @return The drawn value.
+     */
+    private int poisson(double mean) {
+        double limit = Math.exp(-mean);
+        double product = random.nextDouble();
+
+        int count = 0;
+        while(product > limit) {
+            product *= random.nextDouble();
+            count++;
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,85 @@
+package stores;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Matias Grioni
+ * @created 1/25/16
+ *
+ * Round trips of the encoded columns of a CountBlock.
+ */
+public class CountBlockTest {
+    private static final long HOUR = CountEngine.HOUR_MILLIS;
+
+    @Test
+    public void roundTripsSteadyHours() {
+        long[] starts = new long[CountBlock.SIZE];
+        int[] counts = new int[CountBlock.SIZE];
+        for(int i = 0; i < starts.length; i++) {
+            starts[i] = 1450000000000L + i * HOUR;
+            counts[i] = i % 7;
+        }
+
+        CountBlock block = roundTrip(new CountBlock(starts, counts));
+        assertArrayEquals(starts, block.starts);
+        assertArrayEquals(counts, block.counts);
+    }
+
+    @Test
+    public void roundTripsNegativeDeltas() {
+        // The counts go down as often as up and the gaps between starts shrink and grow, so both
+        // columns have negative deltas, along with a negative count and a start before 0.
+        long[] starts = { -5 * HOUR, 0, 3 * HOUR, 4 * HOUR, 4 * HOUR + 1, 9 * HOUR, 9 * HOUR + 2 };
+        int[] counts = { 40, 3, 0, 120000, -2, 17, 16 };
+
+        CountBlock block = roundTrip(new CountBlock(starts, counts));
+        assertArrayEquals(starts, block.starts);
+        assertArrayEquals(counts, block.counts);
+    }
+
+    @Test
+    public void roundTripsExtremes() {
+        long[] starts = { Long.MIN_VALUE / 4, 0, Long.MAX_VALUE / 4 };
+        int[] counts = { Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE };
+
+        CountBlock block = roundTrip(new CountBlock(starts, counts));
+        assertArrayEquals(starts, block.starts);
+        assertArrayEquals(counts, block.counts);
+    }
+
+    @Test
+    public void roundTripsEmptyBlock() {
+        CountBlock block = roundTrip(new CountBlock(new long[0], new int[0]));
+        assertEquals(0, block.starts.length);
+        assertEquals(0, block.counts.length);
+        assertEquals(0, block.sum());
+    }
+
+    @Test
+    public void encodesSteadyRunsInAboutOneBytePerBucket() {
+        long[] starts = new long[CountBlock.SIZE];
+        int[] counts = new int[CountBlock.SIZE];
+        for(int i = 0; i < starts.length; i++)
+            starts[i] = 1450000000000L + i * HOUR;
+
+        CountBlock block = new CountBlock(starts, counts);
+
+        // Only the first two starts change the gap, and every count is the same as the last.
+        assertTrue(block.encodeStarts().length <= CountBlock.SIZE + 16);
+        assertTrue(block.encodeCounts().length <= CountBlock.SIZE + 2);
+    }
+
+    @Test
+    public void sumsCounts() {
+        CountBlock block = new CountBlock(new long[] { 1, 2, 3 }, new int[] { 4, -1, 6 });
+        assertEquals(9, block.sum());
+    }
+
+    private static CountBlock roundTrip(CountBlock block) {
+        return CountBlock.decode(block.encodeStarts(), block.encodeCounts());
+    }
+}
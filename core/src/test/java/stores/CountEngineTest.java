@@ -0,0 +1,294 @@
+package stores;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import models.IntSeries;
+import models.TimeInterval;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Matias Grioni
+ * @created 1/25/16
+ *
+ * Checks the windows of a CountEngine over memory stores against a reference model that rolls up
+ * every day, week, and month from the plain list of hours.
+ */
+public class CountEngineTest {
+    private static final long HOUR = CountEngine.HOUR_MILLIS;
+    private static final long FIRST_HOUR = 1000 * HOUR;
+    private static final int[] BACK_COUNTS = { 1, 2, 3, 4, 5, 7, 12, 40 };
+
+    @Test
+    public void windowsMatchReferenceAsHoursAreAdded() {
+        CountStore[] stores = newStores();
+        CountEngine engine = new CountEngine(stores, null);
+        List<Integer> hours = new ArrayList<>();
+        Random random = new Random(25);
+
+        for(int i = 0; i < 150; i++) {
+            int count = random.nextInt(30);
+            engine.addHour(FIRST_HOUR + i * HOUR, count);
+            hours.add(count);
+
+            checkWindows(engine, hours, random.nextInt(10));
+        }
+
+        // A new engine over the same stores reads what was memoized and warms its hot tier.
+        checkWindows(new CountEngine(stores, null), hours, 3);
+    }
+
+    @Test
+    public void loadMatchesAddingHours() {
+        Random random = new Random(7);
+        int[] counts = new int[97];
+        List<Integer> hours = new ArrayList<>();
+        for(int i = 0; i < counts.length; i++) {
+            counts[i] = random.nextInt(50);
+            hours.add(counts[i]);
+        }
+
+        CountEngine engine = new CountEngine(newStores(), null);
+        engine.addHour(FIRST_HOUR, 1000);
+        engine.load(FIRST_HOUR, counts);
+
+        checkWindows(engine, hours, 4);
+    }
+
+    @Test
+    public void batchedWindowsMatchSingleWindows() {
+        CountEngine engine = new CountEngine(newStores(), null);
+        Random random = new Random(3);
+        for(int i = 0; i < 61; i++)
+            engine.addHour(FIRST_HOUR + i * HOUR, random.nextInt(20));
+
+        TimeInterval[] intervals = { TimeInterval.Hour, TimeInterval.Day, TimeInterval.Day,
+                TimeInterval.Week, TimeInterval.Month, TimeInterval.Week };
+        int[] backCounts = { 6, 1, 9, 2, 1, 40 };
+
+        List<IntSeries> batched = engine.getEntries(intervals, backCounts, 5);
+        for(int i = 0; i < intervals.length; i++) {
+            IntSeries single = engine.getEntries(intervals[i], backCounts[i], 5);
+            assertArrayEquals(single.toArray(), batched.get(i).toArray());
+        }
+    }
+
+    @Test
+    public void addHoursMatchesAddHour() {
+        int[] counts = { 3, 0, 9, 1, 4, 4, 2, 8, 6 };
+
+        CountEngine one = new CountEngine(newStores(), null);
+        for(int i = 0; i < counts.length; i++)
+            one.addHour(FIRST_HOUR + i * HOUR, counts[i]);
+
+        CountEngine batched = new CountEngine(newStores(), null);
+        batched.addHours(FIRST_HOUR, counts);
+        assertEquals(one.getLastHourStart(), batched.getLastHourStart());
+
+        for(TimeInterval interval : TimeInterval.values()) {
+            assertEquals(one.getEntryCount(interval), batched.getEntryCount(interval));
+            assertArrayEquals(one.getEntries(interval, 10, 2).toArray(),
+                    batched.getEntries(interval, 10, 2).toArray());
+        }
+    }
+
+    @Test
+    public void readOnlyEngineReadsWithoutMemoizing() {
+        CountStore[] stores = newStores();
+        CountEngine writer = new CountEngine(stores, null);
+        List<Integer> hours = new ArrayList<>();
+        for(int i = 0; i < 70; i++) {
+            writer.addHour(FIRST_HOUR + i * HOUR, i % 9);
+            hours.add(i % 9);
+        }
+
+        CountEngine reader = new CountEngine(stores, null);
+        reader.setReadOnly(true);
+        checkWindows(reader, hours, 2);
+        assertEquals(sum(finished(hours, TimeInterval.Week)),
+                reader.aggregate(TimeInterval.Week, 1, reader.getEntryCount(TimeInterval.Week)).sum);
+        for(TimeInterval interval : TimeInterval.values()) {
+            if(interval != TimeInterval.Hour)
+                assertEquals(0, stores[interval.ordinal()].size());
+        }
+
+        // Once the writer memoizes, the reader finds the same entries in the stores.
+        writer.memoizeFinished();
+        for(TimeInterval interval : TimeInterval.values())
+            assertEquals(finished(hours, interval).size(), stores[interval.ordinal()].size());
+        checkWindows(reader, hours, 2);
+    }
+
+    @Test
+    public void loadEmptyLinesUpWithLeadingBuckets() {
+        // Days and a week from before the hours were kept, as left by the migration, then hours.
+        CountStore[] stores = newStores();
+        for(int i = 0; i < 5; i++)
+            stores[TimeInterval.Day.ordinal()].append(FIRST_HOUR - (5 - i) * 4 * HOUR, 10 + i);
+        stores[TimeInterval.Week.ordinal()].append(FIRST_HOUR - 40 * HOUR, 30);
+
+        CountEngine wakes = new CountEngine(stores, null);
+        for(int i = 0; i < 30; i++)
+            wakes.addHour(FIRST_HOUR + i * HOUR, i);
+
+        CountEngine other = new CountEngine(newStores(), null);
+        assertTrue(other.isEmpty());
+        other.loadEmpty(wakes);
+        assertFalse(other.isEmpty());
+
+        for(TimeInterval interval : TimeInterval.values()) {
+            assertEquals(wakes.getEntryCount(interval), other.getEntryCount(interval));
+
+            IntSeries entries = other.getEntries(interval, 100, 0);
+            assertEquals(wakes.getEntries(interval, 100, 0).size(), entries.size());
+            assertArrayEquals(new int[entries.size()], entries.toArray());
+        }
+
+        // Hours added to both afterwards keep them lined up.
+        wakes.addHour(FIRST_HOUR + 30 * HOUR, 1);
+        other.addHour(FIRST_HOUR + 30 * HOUR, 1);
+        for(TimeInterval interval : TimeInterval.values())
+            assertEquals(wakes.getEntryCount(interval), other.getEntryCount(interval));
+    }
+
+    @Test
+    public void loadEmptyWithoutHoursStillCopiesLeadingBuckets() {
+        CountStore[] stores = newStores();
+        for(int i = 0; i < 3; i++)
+            stores[TimeInterval.Day.ordinal()].append(FIRST_HOUR + i * 4 * HOUR, 5);
+
+        CountEngine wakes = new CountEngine(stores, null);
+        CountEngine other = new CountEngine(newStores(), null);
+        other.loadEmpty(wakes);
+
+        assertEquals(0, other.getEntryCount(TimeInterval.Hour));
+        assertEquals(3, other.getEntryCount(TimeInterval.Day));
+        assertEquals(wakes.getEntries(TimeInterval.Day, 5, 0).size(),
+                other.getEntries(TimeInterval.Day, 5, 0).size());
+    }
+
+    /**
+     * Compares every TimeInterval and a spread of back counts against the reference model.
+     */
+    private static void checkWindows(CountEngine engine, List<Integer> hours, int hourCount) {
+        for(TimeInterval interval : TimeInterval.values()) {
+            assertEquals(interval.name(), finished(hours, interval).size(),
+                    engine.getEntryCount(interval));
+
+            for(int backCount : BACK_COUNTS) {
+                int[] expected = expectedEntries(hours, interval, backCount, hourCount);
+                String window = interval + " " + backCount + " after " + hours.size() + " hours";
+
+                assertArrayEquals(window, expected,
+                        engine.getEntries(interval, backCount, hourCount).toArray());
+                assertEquals(window, sum(expected),
+                        engine.getCount(interval, backCount, hourCount));
+            }
+        }
+    }
+
+    /**
+     * The entries of a window as the engine should give them. A window going back one day, week,
+     * or month is made of the hours or days in it.
+     */
+    private static int[] expectedEntries(List<Integer> hours, TimeInterval interval, int backCount,
+                                         int hourCount) {
+        if(backCount == 1 && interval != TimeInterval.Hour) {
+            if(interval == TimeInterval.Day) {
+                backCount = CountEngine.DAY_TO_HOUR;
+                interval = TimeInterval.Hour;
+            } else {
+                backCount = interval == TimeInterval.Week ? CountEngine.WEEK_TO_DAY
+                        : CountEngine.MONTH_TO_DAY;
+                interval = TimeInterval.Day;
+            }
+        }
+
+        List<Integer> finished = finished(hours, interval);
+        int first = Math.max(0, finished.size() - (backCount - 1));
+
+        int[] entries = new int[finished.size() - first + 1];
+        for(int i = first; i < finished.size(); i++)
+            entries[i - first] = finished.get(i);
+        entries[entries.length - 1] = current(hours, interval, hourCount);
+
+        return entries;
+    }
+
+    /**
+     * The finished buckets of the TimeInterval rolled up from the hours.
+     */
+    private static List<Integer> finished(List<Integer> hours, TimeInterval interval) {
+        if(interval == TimeInterval.Hour)
+            return hours;
+
+        List<Integer> days = group(hours, CountEngine.DAY_TO_HOUR);
+        if(interval == TimeInterval.Day)
+            return days;
+        else if(interval == TimeInterval.Week)
+            return group(days, CountEngine.WEEK_TO_DAY);
+
+        return group(days, CountEngine.MONTH_TO_DAY);
+    }
+
+    /**
+     * The bucket of the TimeInterval that is still going on, made of the current hour and the
+     * finished hours and days that are not part of a finished bucket yet.
+     */
+    private static int current(List<Integer> hours, TimeInterval interval, int hourCount) {
+        int current = hourCount + leftover(hours, CountEngine.DAY_TO_HOUR);
+        if(interval == TimeInterval.Hour)
+            return hourCount;
+        else if(interval == TimeInterval.Day)
+            return current;
+
+        List<Integer> days = group(hours, CountEngine.DAY_TO_HOUR);
+        int ratio = interval == TimeInterval.Week ? CountEngine.WEEK_TO_DAY
+                : CountEngine.MONTH_TO_DAY;
+
+        return current + leftover(days, ratio);
+    }
+
+    private static List<Integer> group(List<Integer> buckets, int ratio) {
+        List<Integer> grouped = new ArrayList<>();
+        for(int i = 0; i + ratio <= buckets.size(); i += ratio)
+            grouped.add(sum(buckets.subList(i, i + ratio)));
+
+        return grouped;
+    }
+
+    private static int leftover(List<Integer> buckets, int ratio) {
+        return sum(buckets.subList(buckets.size() / ratio * ratio, buckets.size()));
+    }
+
+    private static int sum(List<Integer> buckets) {
+        int sum = 0;
+        for(int count : buckets)
+            sum += count;
+
+        return sum;
+    }
+
+    private static int sum(int[] buckets) {
+        int sum = 0;
+        for(int count : buckets)
+            sum += count;
+
+        return sum;
+    }
+
+    private static CountStore[] newStores() {
+        CountStore[] stores = new CountStore[TimeInterval.values().length];
+        for(int i = 0; i < stores.length; i++)
+            stores[i] = new MemoryCountStore();
+
+        return stores;
+    }
+}
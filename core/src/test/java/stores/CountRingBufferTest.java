@@ -0,0 +1,81 @@
+package stores;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Matias Grioni
+ * @created 1/25/16
+ *
+ * The edges of the positions held by a CountRingBuffer.
+ */
+public class CountRingBufferTest {
+    @Test
+    public void emptyBufferOnlyHoldsEmptyRanges() {
+        CountRingBuffer buffer = new CountRingBuffer(4);
+        buffer.reset(10);
+
+        assertTrue(buffer.holds(11, 10));
+        assertTrue(buffer.holds(1, 0));
+        assertFalse(buffer.holds(10, 10));
+        assertFalse(buffer.holds(11, 11));
+        assertEquals(0, buffer.sum(11, 10));
+    }
+
+    @Test
+    public void holdsPositionsAfterReset() {
+        CountRingBuffer buffer = new CountRingBuffer(4);
+        buffer.reset(10);
+        buffer.add(1);
+        buffer.add(2);
+        buffer.add(3);
+
+        assertTrue(buffer.holds(11, 13));
+        assertTrue(buffer.holds(12, 12));
+        assertFalse(buffer.holds(10, 13));
+        assertFalse(buffer.holds(11, 14));
+
+        assertEquals(1, buffer.get(11));
+        assertEquals(3, buffer.get(13));
+        assertEquals(6, buffer.sum(11, 13));
+        assertEquals(5, buffer.sum(12, 13));
+    }
+
+    @Test
+    public void dropsOldestOnceFull() {
+        CountRingBuffer buffer = new CountRingBuffer(4);
+        buffer.reset(0);
+        for(int count = 1; count <= 6; count++)
+            buffer.add(count);
+
+        // Positions 3 through 6 are held, and 1 and 2 were overwritten.
+        assertTrue(buffer.holds(3, 6));
+        assertFalse(buffer.holds(2, 6));
+        assertFalse(buffer.holds(2, 2));
+        assertFalse(buffer.holds(3, 7));
+
+        assertEquals(3, buffer.get(3));
+        assertEquals(6, buffer.get(6));
+        assertEquals(18, buffer.sum(3, 6));
+        assertEquals(11, buffer.sum(5, 6));
+    }
+
+    @Test
+    public void resetDropsEverything() {
+        CountRingBuffer buffer = new CountRingBuffer(2);
+        buffer.reset(0);
+        buffer.add(5);
+        buffer.add(6);
+
+        buffer.reset(7);
+        assertFalse(buffer.holds(2, 2));
+        assertFalse(buffer.holds(7, 7));
+
+        buffer.add(9);
+        assertTrue(buffer.holds(8, 8));
+        assertEquals(9, buffer.sum(8, 8));
+    }
+}
@@ -0,0 +1,131 @@
+package stores;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Matias Grioni
+ * @created 1/25/16
+ *
+ * Sums, reads and memos of a RollupEngine of hours and days, with and without leading days from
+ * before the hours were kept.
+ */
+public class RollupEngineTest {
+    private static final long HOUR = CountEngine.HOUR_MILLIS;
+    private static final long FIRST_HOUR = 1000 * HOUR;
+    private static final int RATIO = 4;
+
+    private MemoryCountStore hours;
+    private MemoryCountStore days;
+
+    @Before
+    public void setUp() {
+        hours = new MemoryCountStore();
+        days = new MemoryCountStore();
+    }
+
+    @Test
+    public void sumsAndReadsComputedBuckets() {
+        appendHours(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+        RollupEngine rollups = newEngine();
+
+        assertEquals(10, rollups.size(0));
+        assertEquals(2, rollups.size(1));
+        assertEquals(2, rollups.partialSize(1));
+        assertEquals(0, rollups.memoized(1));
+
+        assertEquals(10, rollups.sum(1, 1, 1));
+        assertEquals(26, rollups.sum(1, 2, 2));
+        assertEquals(36, rollups.sum(1, 1, 2));
+        assertEquals(0, rollups.sum(1, 2, 1));
+        assertArrayEquals(new int[] { 10, 26 }, rollups.read(1, 1, 2));
+        assertArrayEquals(new int[0], rollups.read(1, 3, 2));
+
+        assertEquals(FIRST_HOUR + 4 * HOUR, rollups.getStart(1, 2));
+    }
+
+    @Test
+    public void memoizesInOrderAndReadsTheSame() {
+        appendHours(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12);
+        RollupEngine rollups = newEngine();
+
+        rollups.memoize(1, 2);
+        assertEquals(2, rollups.memoized(1));
+        assertEquals(FIRST_HOUR, days.getStart(1));
+        assertEquals(FIRST_HOUR + 4 * HOUR, days.getStart(2));
+        assertArrayEquals(new int[] { 10, 26 }, days.read(1, 2));
+
+        // Reading across the memo and the computed buckets gives the same as computing them all.
+        assertArrayEquals(new int[] { 10, 26, 42 }, rollups.read(1, 1, 3));
+        assertEquals(68, rollups.sum(1, 2, 3));
+
+        // Memoizing past the size stops at the last finished bucket.
+        rollups.memoize(1, 10);
+        assertEquals(3, rollups.memoized(1));
+    }
+
+    @Test
+    public void findsLeadingBucketsFromBeforeTheHours() {
+        // Three days from before any hour was kept, then the hours.
+        days.append(FIRST_HOUR - 12 * HOUR, 100);
+        days.append(FIRST_HOUR - 8 * HOUR, 200);
+        days.append(FIRST_HOUR - 4 * HOUR, 300);
+        appendHours(1, 1, 1, 1, 2, 2, 2, 2, 5);
+        RollupEngine rollups = newEngine();
+
+        assertEquals(3, rollups.baseSize(1));
+        assertEquals(0, rollups.baseSize(0));
+        assertEquals(5, rollups.size(1));
+        assertEquals(1, rollups.partialSize(1));
+
+        assertArrayEquals(new int[] { 100, 200, 300, 4, 8 }, rollups.read(1, 1, 5));
+        assertEquals(512, rollups.sum(1, 2, 5));
+        assertEquals(FIRST_HOUR - 8 * HOUR, rollups.getStart(1, 2));
+        assertEquals(FIRST_HOUR + 4 * HOUR, rollups.getStart(1, 5));
+
+        rollups.memoize(1, 5);
+        assertEquals(5, rollups.memoized(1));
+        assertEquals(FIRST_HOUR, days.getStart(4));
+        assertArrayEquals(new int[] { 100, 200, 300, 4, 8 }, days.read(1, 5));
+    }
+
+    @Test
+    public void leadingBucketsExcludeMemoizedOnes() {
+        // Two leading days and one already memoized from the hours.
+        days.append(FIRST_HOUR - 8 * HOUR, 7);
+        days.append(FIRST_HOUR - 4 * HOUR, 9);
+        days.append(FIRST_HOUR, 4);
+        appendHours(1, 1, 1, 1, 3, 3, 3, 3);
+        RollupEngine rollups = newEngine();
+
+        assertEquals(2, rollups.baseSize(1));
+        assertEquals(4, rollups.size(1));
+        assertArrayEquals(new int[] { 7, 9, 4, 12 }, rollups.read(1, 1, 4));
+    }
+
+    @Test
+    public void everyBucketIsLeadingWithoutHours() {
+        days.append(HOUR, 3);
+        days.append(2 * HOUR, 4);
+        RollupEngine rollups = newEngine();
+
+        assertEquals(2, rollups.baseSize(1));
+        assertEquals(2, rollups.size(1));
+        assertEquals(7, rollups.sum(1, 1, 2));
+    }
+
+    private RollupEngine newEngine() {
+        RollupEngine rollups = new RollupEngine(hours);
+        rollups.addLevel(days, 0, RATIO);
+
+        return rollups;
+    }
+
+    private void appendHours(int... counts) {
+        for(int i = 0; i < counts.length; i++)
+            hours.append(FIRST_HOUR + i * HOUR, counts[i]);
+    }
+}
@@ -0,0 +1,262 @@
+package stores;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import models.CountMetric;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Matias Grioni
+ * @created 1/23/16
+ *
+ * Reading back, replaying, and trimming the file of a WakeLog.
+ */
+public class WakeLogTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void dropsTornTailOnOpen() throws IOException {
+        File file = folder.newFile("wakes.log");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        out.writeLong(1000);
+        out.writeLong(-2000);
+        out.write(new byte[] { 1, 2, 3 });
+        out.close();
+
+        WakeLog log = open(file);
+        assertEquals(16, file.length());
+        assertEquals(2000, log.getLastBoundary());
+
+        // Entries appended afterwards are read back whole.
+        log.append(2500);
+        log.flushHour(3000);
+        log.close();
+
+        assertEquals(3000, open(file).getLastBoundary());
+        assertArrayEquals(new long[] { 1000, -2000, 2500, -3000 }, readEntries(file));
+    }
+
+    @Test
+    public void replaysEveryMetricIntoBuckets() throws IOException {
+        WakeLog log = open(folder.newFile("wakes.log"));
+
+        // A session from before the first bucket is left out entirely.
+        log.append(9000, WakeLog.WAKE);
+        log.append(9500, WakeLog.SCREEN_OFF);
+
+        log.append(10100, WakeLog.WAKE);
+        log.append(10600, WakeLog.SCREEN_OFF);
+
+        // A session across the first two buckets has its time split between them, and is counted
+        // in the bucket it ended in.
+        log.append(10900, WakeLog.WAKE);
+        log.append(11000, WakeLog.UNLOCK);
+        log.append(11300, WakeLog.SCREEN_OFF);
+        log.flushHour(12000);
+
+        // A wake during a session starts it over, and the session that has not ended is counted up
+        // to the end.
+        log.append(12500, WakeLog.WAKE);
+        log.append(12700, WakeLog.WAKE);
+        log.flush();
+
+        int[][] counts = log.replay(10000, 1000, 3, 12800);
+        assertArrayEquals(new int[] { 2, 0, 2 }, counts[CountMetric.Wakes.ordinal()]);
+        assertArrayEquals(new int[] { 600, 300, 100 }, counts[CountMetric.ScreenOn.ordinal()]);
+        assertArrayEquals(new int[] { 1, 1, 0 }, counts[CountMetric.Sessions.ordinal()]);
+        assertArrayEquals(new int[] { 0, 1, 0 }, counts[CountMetric.Unlocks.ordinal()]);
+    }
+
+    @Test
+    public void replayLeavesOutUnflushedEntries() throws IOException {
+        WakeLog log = open(folder.newFile("wakes.log"));
+        log.append(100);
+        log.flush();
+        log.append(200);
+
+        int[][] counts = log.replay(0, 1000, 1, 0);
+        assertArrayEquals(new int[] { 1 }, counts[CountMetric.Wakes.ordinal()]);
+    }
+
+    @Test
+    public void replayLeavesOutEntriesAfterTheMark() throws IOException {
+        WakeLog log = open(folder.newFile("wakes.log"));
+        log.append(100);
+        log.append(200, WakeLog.UNLOCK);
+        log.flush();
+        log.append(300);
+        long appended = log.getAppended();
+
+        // Flushed or not, the entries after the mark are left out.
+        log.append(400);
+        log.append(500, WakeLog.UNLOCK);
+        log.flush();
+        log.append(600);
+
+        int[][] counts = log.replay(0, 1000, 1, 0, appended);
+        assertArrayEquals(new int[] { 2 }, counts[CountMetric.Wakes.ordinal()]);
+        assertArrayEquals(new int[] { 1 }, counts[CountMetric.Unlocks.ordinal()]);
+    }
+
+    @Test
+    public void readsTheEndOfALongLog() throws IOException {
+        File file = folder.newFile("wakes.log");
+        WakeLog log = open(file);
+
+        // Far more sessions than are read back at a time, with the only hour end well before the
+        // end of the file.
+        for(int i = 0; i < 2000; i++) {
+            log.append(i * 10, WakeLog.WAKE);
+            log.append(i * 10 + 5, WakeLog.SCREEN_OFF);
+            log.flush();
+
+            if(i == 499)
+                log.flushHour(5000);
+        }
+        log.close();
+
+        log = open(file);
+        assertEquals(5000, log.getLastBoundary());
+
+        // The session going on when the first bucket starts has the rest of its time counted.
+        int[][] counts = log.replay(15002, 1000, 5, 0);
+        assertEquals(499, sum(counts[CountMetric.Wakes.ordinal()]));
+        assertEquals(500, sum(counts[CountMetric.Sessions.ordinal()]));
+        assertEquals(3 + 499 * 5, sum(counts[CountMetric.ScreenOn.ordinal()]));
+        assertEquals(3 + 99 * 5 + 2, counts[CountMetric.ScreenOn.ordinal()][0]);
+    }
+
+    @Test
+    public void replayOfMissingFileIsEmpty() throws IOException {
+        WakeLog log = new WakeLog(new File(folder.getRoot(), "missing.log"), 16, 8, 1000);
+
+        int[][] counts = log.replay(0, 1000, 2, 0);
+        assertEquals(CountMetric.values().length, counts.length);
+        assertArrayEquals(new int[2], counts[CountMetric.Wakes.ordinal()]);
+    }
+
+    @Test
+    public void trimDropsOldEntriesAndKeepsAppending() throws IOException {
+        File file = folder.newFile("wakes.log");
+        WakeLog log = open(file);
+        log.append(100);
+        log.append(200, WakeLog.UNLOCK);
+        log.flushHour(1000);
+        log.append(1500, WakeLog.SCREEN_OFF);
+        log.flushHour(2000);
+
+        log.append(2100);
+        log.trim(1000);
+
+        // The entries and hour ends before 1000 are gone, and the kinds are kept.
+        int[][] counts = log.replay(0, 1000, 3, 0);
+        assertArrayEquals(new int[] { 0, 0, 1 }, counts[CountMetric.Wakes.ordinal()]);
+        assertArrayEquals(new int[3], counts[CountMetric.Unlocks.ordinal()]);
+        assertEquals(4, readEntries(file).length);
+
+        log.append(2200);
+        log.flush();
+        assertEquals(5, readEntries(file).length);
+        assertFalse(new File(file.getPath() + ".trim").exists());
+    }
+
+    @Test
+    public void failedTrimKeepsTheLogOpen() throws IOException {
+        File file = folder.newFile("wakes.log");
+        WakeLog log = open(file);
+        log.append(100);
+        log.flush();
+
+        // A directory where the rewritten file goes makes the rewrite fail.
+        File trimmed = new File(file.getPath() + ".trim");
+        assertTrue(trimmed.mkdir());
+        assertTrue(new File(trimmed, "block").createNewFile());
+
+        try {
+            log.trim(50);
+            fail("The trim should have failed");
+        } catch(IOException ex) {
+            // Expected.
+        }
+
+        log.append(200);
+        log.flush();
+        assertArrayEquals(new long[] { 100, 200 }, readEntries(file));
+    }
+
+    @Test
+    public void tracksLastAppendedTime() throws IOException {
+        WakeLog log = open(folder.newFile("wakes.log"));
+        assertEquals(0, log.getLastTime());
+
+        log.append(300);
+        log.append(400, WakeLog.SCREEN_OFF);
+        assertEquals(400, log.getLastTime());
+
+        log.flush();
+        assertEquals(400, log.getLastTime());
+    }
+
+    @Test
+    public void fullRingAsksForFlushAndDropsEntries() throws IOException {
+        File file = folder.newFile("wakes.log");
+        WakeLog log = new WakeLog(file, 4, 100, Long.MAX_VALUE);
+        log.open();
+
+        for(int i = 1; i <= 4; i++)
+            assertFalse(log.append(i));
+        assertTrue(log.append(5));
+
+        log.flush();
+        assertArrayEquals(new long[] { 1, 2, 3, 4 }, readEntries(file));
+    }
+
+    private static WakeLog open(File file) throws IOException {
+        WakeLog log = new WakeLog(file, 16, 8, Long.MAX_VALUE);
+        log.open();
+
+        return log;
+    }
+
+    private static int sum(int[] buckets) {
+        int sum = 0;
+        for(int count : buckets)
+            sum += count;
+
+        return sum;
+    }
+
+    private static long[] readEntries(File file) throws IOException {
+        List<Long> entries = new ArrayList<>();
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            for(long i = 0; i < file.length() / 8; i++)
+                entries.add(in.readLong());
+        } finally {
+            in.close();
+        }
+
+        long[] values = new long[entries.size()];
+        for(int i = 0; i < values.length; i++)
+            values[i] = entries.get(i);
+
+        return values;
+    }
+}